@@ -1,9 +1,54 @@
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongSupplier;
+import java.util.stream.IntStream;
 
 /**
  * WAVLTree
@@ -14,14 +59,58 @@ import java.util.List;
 
 public class WAVLTree {
 
+	/* queue entries of revived keys allowed beyond twice the tombstones, see dropStaleTombstones() */
+	private static final int PENDING_SLACK = 64;
+	/* minimal number of adaptive searches between two restructures */
+	private static final int ADAPT_PERIOD = 1024;
+
 	private WAVLNode root;
+	/* the virtual child of every node - virtual nodes are never written, so they can be shared */
+	private final WAVLNode virtualNode;
 	private WAVLNode minNode;
 	private WAVLNode maxNode;
+	/* real nodes linked in the tree, tombstones included - see memoryStats() */
+	private int nodeCount;
+	/* lazy delete mode - delete only marks nodes as tombstones */
+	private boolean lazyDelete;
+	private int tombstones;
+	private ArrayDeque<Integer> pendingTombstones;
+	/* MVCC read snapshots - see snapshot() */
+	private volatile long epoch;
+	private volatile long latestPinned;
+	private volatile boolean reclaimPending;
+	private final List<Snapshot> openSnapshots;
+	private List<WAVLNode> versionedNodes;
+	/* dictionary encoding of the infos, null if the infos are stored as is */
+	private ValueDictionary dictionary;
+	/* multiset mode - a key can be inserted more than once */
+	private boolean multiset;
+	/* adaptive mode - search lifts frequently accessed nodes, see setAdaptive() */
+	private boolean adaptive;
+	private int hitsSinceRestructure;
+	private long searchHits;
+	private long searchDepthSum;
+	/* records the calls for TraceReplay, null if not recording - see setTraceRecorder() */
+	private TraceRecorder recorder;
 	
 	public WAVLTree() {
 		this.root = null;
 		this.minNode = null;
 		this.maxNode = null;
+		this.nodeCount = 0;
+		this.lazyDelete = false;
+		this.tombstones = 0;
+		this.pendingTombstones = new ArrayDeque<Integer>();
+		this.epoch = 0;
+		this.latestPinned = -1;
+		this.reclaimPending = false;
+		this.openSnapshots = new ArrayList<Snapshot>();
+		this.versionedNodes = new ArrayList<WAVLNode>();
+		this.dictionary = null;
+		this.multiset = false;
+		this.adaptive = false;
+		this.recorder = null;
+		this.virtualNode = new WAVLNode();
 	}
 	
   /**
@@ -77,7 +166,7 @@ public class WAVLTree {
   public boolean empty() {
 	  if(this.getRoot()==null)
 		  return true;
-	  return (!this.getRoot().isRealNode());
+	  return (!this.getRoot().isRealNode() || this.getRoot().getSubtreeSize() == 0);
   }
 
  /**
@@ -89,9 +178,12 @@ public class WAVLTree {
     * is the height of the tree
     */
    public String min() {
-	   if(this.minNode == null) {
+	   if(this.minNode == null || this.empty()) {
 		   return null;
 	   }
+	   if(this.minNode.isDeleted()) {
+		   return this.extremeLiveNode(false).getValue();
+	   }
 	   return this.minNode.getValue();
    }
 
@@ -104,12 +196,38 @@ public class WAVLTree {
     * is the height of the tree
     */
    public String max() {
-	   if(this.maxNode == null) {
+	   if(this.maxNode == null || this.empty()) {
 		   return null;
 	   }
+	   if(this.maxNode.isDeleted()) {
+		   return this.extremeLiveNode(true).getValue();
+	   }
 	   return this.maxNode.getValue();
    }
 
+   /**
+    * private WAVLNode extremeLiveNode(boolean largest)
+    *
+    * returns the live node with the smallest (or largest) key, skipping tombstones.
+    * precondition: the tree is not empty
+    * Complexity O(log n), follows the subtree sizes down one path
+    */
+   private WAVLNode extremeLiveNode(boolean largest) {
+	   WAVLNode node = this.root;
+	   while(true) {
+		   WAVLNode near = largest ? node.getRight() : node.getLeft();
+		   if(near.isRealNode() && near.getSubtreeSize() > 0) {
+			   node = near;
+		   }
+		   else if(!node.isDeleted()) {
+			   return node;
+		   }
+		   else {
+			   node = largest ? node.getLeft() : node.getRight();
+		   }
+	   }
+   }
+
 /**
    * public String search(int k)
    *
@@ -120,21 +238,248 @@ public class WAVLTree {
    */
   public String search(int k)
   {
-	IWAVLNode node = this.getRoot();
-	while(node!=null && node.isRealNode()) {
-		if(node.getKey()==k) {
+	if(this.recorder != null) {
+		this.recorder.record(TraceRecorder.SEARCH, k, null);
+	}
+	if(this.adaptive) {
+		return this.adaptiveSearch(k);
+	}
+	/* the hot loop reads the fields directly, virtual nodes end it*/
+	WAVLNode node = this.root;
+	while(node!=null && node.isReal) {
+		int key = node.key;
+		if(key==k) {
+			if(node.isDeleted) {
+				return null;
+			}
 			return node.getValue();
 		}
-		if(node.getKey()>k) {
-			node=node.getLeft();
+		node = key>k ? node.left : node.right;
+	}
+	return null;
+  }
+
+  /**
+   * private WAVLNode fingerSearch(WAVLNode finger, int k)
+   *
+   * search that starts from finger, the node a previous search stopped at,
+   * instead of from the root: climbs to the lowest ancestor whose key range
+   * holds k and descends from there.
+   * precondition: finger is null, or the tree has not changed since finger was
+   * returned for a key <= k
+   * returns the node with key k (maybe a tombstone), or the last real node on
+   * its search path, or null if the tree is empty
+   * Complexity O(log n), O(b log(n/b)) for b searches in increasing key order
+   */
+  private WAVLNode fingerSearch(WAVLNode finger, int k) {
+	WAVLNode node = finger == null ? this.root : finger;
+	if(node == null || !node.isRealNode()) {
+		return null;
+	}
+	/* every key of a left child's subtree is below its parent's key*/
+	while(node.getParent() != null && !(node.getParent().getLeft() == node && k < node.getParent().getKey())) {
+		node = node.getParent();
+	}
+	while(node.getKey() != k) {
+		WAVLNode next = node.getKey() > k ? node.getLeft() : node.getRight();
+		if(!next.isRealNode()) {
+			return node;
 		}
-		else {
-			node=node.getRight();
+		node = next;
+	}
+	return node;
+  }
+
+  /**
+   * private String adaptiveSearch(int k)
+   *
+   * search in adaptive mode. counts a hit on the found node - the tree is
+   * only restructured by restructure(), never on the read path.
+   * Complexity O(log n)
+   */
+  private String adaptiveSearch(int k) {
+	WAVLNode node = this.root;
+	int depth = 0;
+	while(node!=null && node.isRealNode()) {
+		if(node.getKey()==k) {
+			if(node.isDeleted()) {
+				return null;
+			}
+			this.searchHits++;
+			this.searchDepthSum += depth;
+			node.countHit();
+			this.hitsSinceRestructure++;
+			return node.getValue();
 		}
+		node = node.getKey()>k ? node.getLeft() : node.getRight();
+		depth++;
 	}
 	return null;
   }
 
+  /**
+   * private void restructureByHits()
+   *
+   * relinks all the nodes (tombstones included) into a tree that is weight
+   * balanced by the hit counts, and halves the counts so the tree follows a
+   * drifting popularity.
+   * the root keeps its rank and every subtree is built for a rank whose
+   * WAVL size bounds hold (see buildByHits), so the result is a valid
+   * WAVL tree and its height is at most the rank of the root, below 2log(n).
+   * Complexity O(n)
+   */
+  private void restructureByHits() {
+	this.hitsSinceRestructure = 0;
+	List<WAVLNode> nodes = getInOrderNodes(this.root);
+	long[] weights = new long[nodes.size() + 1];
+	for(int j = 0; j < nodes.size(); j++) {
+		WAVLNode node = nodes.get(j);
+		/* +1 keeps the cold parts of the tree balanced by size*/
+		weights[j + 1] = weights[j] + node.getHits() + 1;
+		node.halveHits();
+	}
+	this.setRoot(buildByHits(nodes, weights, 0, nodes.size() - 1, this.root.getRank()));
+  }
+
+  /**
+   * private static long minWAVLSize(int r)
+   *
+   * Returns the least number of nodes in a WAVL tree of rank r:
+   * a leaf has rank 0, a rank 1 node needs one real child and above that
+   * both children may be 2 lower.
+   * the most is 2^(r+1)-1, a perfect tree.
+   * Complexity O(r)
+   */
+  private static long minWAVLSize(int r) {
+	long size = r < 0 ? 0 : (r % 2 == 0 ? 1 : 2);
+	for(int j = r % 2 == 0 ? 0 : 1; j + 2 <= r; j += 2) {
+		size = 2 * size + 1;
+	}
+	return size;
+  }
+
+  private static long maxWAVLSize(int r) {
+	return r >= 62 ? Long.MAX_VALUE : (1L << (r + 1)) - 1;
+  }
+
+  /**
+   * private WAVLNode buildByHits(List<WAVLNode> nodes, long[] weights, int lo, int hi, int rank)
+   *
+   * links nodes[lo..hi] (sorted by key) into a WAVL subtree of the given rank and
+   * returns its root, or the virtual node if the range is empty.
+   * weights are the prefix sums of the node weights. the root is the node that
+   * splits the weight most evenly among those that leave both sides a size
+   * some child rank (rank-1 or rank-2) can hold.
+   * precondition: minWAVLSize(rank) <= hi-lo+1 <= maxWAVLSize(rank)
+   * Complexity O(hi - lo)
+   */
+  private WAVLNode buildByHits(List<WAVLNode> nodes, long[] weights, int lo, int hi, int rank) {
+	if(lo > hi) {
+		return this.virtualNode;
+	}
+	int size = hi - lo + 1;
+	long minSide = minWAVLSize(rank - 2);
+	long maxSide = maxWAVLSize(rank - 1);
+	int first = lo + (int) Math.max(minSide, size - 1 - maxSide);
+	int last = lo + (int) Math.min(maxSide, size - 1 - minSide);
+	/* the weighted median: the first node whose prefix reaches half the range weight*/
+	long half = (weights[lo] + weights[hi + 1]) / 2;
+	int mid = Arrays.binarySearch(weights, lo + 1, hi + 2, half);
+	mid = (mid < 0 ? -mid - 1 : mid) - 1;
+	mid = Math.max(first, Math.min(last, mid));
+	WAVLNode node = nodes.get(mid);
+	WAVLNode left = buildByHits(nodes, weights, lo, mid - 1, childRank(mid - lo, rank));
+	WAVLNode right = buildByHits(nodes, weights, mid + 1, hi, childRank(hi - mid, rank));
+	node.setLeft(left);
+	node.setRight(right);
+	node.setRank(rank);
+	node.setSubtreeSize(left.getSubtreeSize() + right.getSubtreeSize() + node.liveCount());
+	return node;
+  }
+
+  /* the rank for a child subtree of the given size, rank-1 if it is big enough, rank-2 otherwise*/
+  private static int childRank(int size, int rank) {
+	return size >= minWAVLSize(rank - 1) ? rank - 1 : rank - 2;
+  }
+
+  /**
+   * public void setAdaptive(boolean adaptive)
+   *
+   * turns adaptive mode on or off. in adaptive mode every successful search counts
+   * a hit on the found node, and restructure() moves the popular keys toward the
+   * root (see restructureByHits). the caller schedules it - restructureDue() tells
+   * when enough hits were counted - so no search pays for the O(n) relink.
+   * the result is always a valid WAVL tree, so the worst case depth stays 2log(n).
+   * note that in adaptive mode search writes the hit counts, so it must not run
+   * concurrently with any other operation on it.
+   * Complexity O(1)
+   */
+  public void setAdaptive(boolean adaptive) {
+	  this.adaptive = adaptive;
+	  this.hitsSinceRestructure = 0;
+	  this.searchHits = 0;
+	  this.searchDepthSum = 0;
+  }
+
+  public boolean isAdaptive() {
+	  return this.adaptive;
+  }
+
+  /**
+   * public boolean restructureDue()
+   *
+   * true in adaptive mode once max(ADAPT_PERIOD, size) hits were counted since
+   * the last restructure, which keeps its cost amortized O(1) per hit.
+   * Complexity O(1)
+   */
+  public boolean restructureDue() {
+	  return this.adaptive && this.hitsSinceRestructure >= Math.max(ADAPT_PERIOD, this.size());
+  }
+
+  /**
+   * public void restructure()
+   *
+   * in adaptive mode, restructures the tree by the hit counts (see restructureByHits),
+   * otherwise does nothing. meant to run where an O(n) pause is acceptable,
+   * for example when restructureDue() turns true in a quiet period.
+   * Complexity O(n)
+   */
+  public void restructure() {
+	  if (!this.adaptive || this.root == null) {
+		  return;
+	  }
+	  if (this.reclaimPending) {
+		  this.reclaimVersions();
+	  }
+	  this.restructureByHits();
+  }
+
+  /**
+   * public void setTraceRecorder(TraceRecorder recorder)
+   *
+   * starts recording the insert / delete / search / select calls on the tree
+   * (the top down variants as insert and delete) into recorder, or stops if it is null.
+   * the recorder is not closed when recording stops.
+   * Complexity O(1), O(1) more per recorded call
+   */
+  public void setTraceRecorder(TraceRecorder recorder) {
+	  this.recorder = recorder;
+  }
+
+  /**
+   * public double averageSearchDepth()
+   *
+   * Returns the average depth (root = 0) of the nodes found by the successful
+   * searches since adaptive mode was turned on, or 0 if there were none.
+   * Complexity O(1)
+   */
+  public double averageSearchDepth() {
+	  if(this.searchHits == 0) {
+		  return 0;
+	  }
+	  return (double) this.searchDepthSum / this.searchHits;
+  }
+
   /**
    * public int insert(int k, String i)
    *
@@ -147,19 +492,52 @@ public class WAVLTree {
    
    public int insert(int k, String i) {
 	   /* func findInsertionPnt (if k already exists return the node with k as key)*/
-	   WAVLNode insertionPntNode = findInsertionPnt(k); 
+	   return insertAt(findInsertionPnt(k), k, i);
+   }
+   
+   /**
+    * private int insertAt(WAVLNode insertionPntNode, int k, String i)
+    *
+    * insert(k, i) with the insertion point already found, by findInsertionPnt or
+    * fingerSearch (the node with key k, or the last real node on its search path,
+    * null if the tree is empty).
+    * Complexity O(log n)
+    */
+   private int insertAt(WAVLNode insertionPntNode, int k, String i) {
+	   if (this.recorder != null) {
+		   this.recorder.record(TraceRecorder.INSERT, k, i);
+	   }
+	   if (this.reclaimPending) {
+		   this.reclaimVersions();
+	   }
 	   /* insertion as root*/
 	   if (insertionPntNode == null) {
-		   this.setRoot(new WAVLNode (k,i));
+		   this.setRoot(this.newNode(k,i));
+		   this.minNode = this.root;
+		   this.maxNode = this.root;
 		   return 0;
 	   }
 	   if (k == insertionPntNode.getKey()) {
+		   if (this.multiset && !insertionPntNode.isDeleted()) {
+			   /* another occurrence - no new node and no rebalancing*/
+			   insertionPntNode.addOccurrence(i);
+			   updateSubtreeSize(insertionPntNode, 1);
+			   return 0;
+		   }
 		   insertionPntNode.setValue(i); 
+		   if (insertionPntNode.isDeleted()) {
+			   /* revive a tombstone - no structural change*/
+			   insertionPntNode.setDeleted(false);
+			   this.tombstones--;
+			   updateSubtreeSize(insertionPntNode, 1);
+			   this.boundPending();
+			   return 0;
+		   }
 		   return -1;
 	   }
 	   
 	   boolean InerstionPntIsLeaf = insertionPntNode.isLeaf(); 
-	   WAVLNode insertedNode = new WAVLNode (k,i);
+	   WAVLNode insertedNode = this.newNode(k,i);
 	   
 	   // update min / max
 	   if(this.minNode == null || k < this.minNode.getKey()) {
@@ -206,21 +584,164 @@ public class WAVLTree {
     * Complexity O(log n)
     */
    public WAVLNode findInsertionPnt(int key) {
-	   WAVLNode x = (WAVLNode) this.getRoot();
-	   WAVLNode xSon = (WAVLNode)this.getRoot();
-	   while(xSon != null && xSon.isRealNode()) {
+	   WAVLNode x = this.root;
+	   WAVLNode xSon = this.root;
+	   while(xSon != null && xSon.isReal) {
 		   x = xSon;
-		   if(x.getKey() == key) {
+		   int xKey = x.key;
+		   if(xKey == key) {
 			   return x;
 		   }
-		   if(x.getKey() > key) {
-			   xSon = x.getLeft();
+		   xSon = xKey > key ? x.left : x.right;
+	   }
+	   return x;
+   }
+   
+   /**
+    * public int insertTopDown(int k, String i)
+    *
+    * same as insert(k, i), in a single top down pass.
+    * subtree sizes are updated on the way down, and the descent keeps the deepest
+    * node where a promotion chain starting at the new leaf would stop ("safe" node).
+    * only the path below that node is walked again, promoting top down, then
+    * the safe node itself is promoted or rotated. the rebalancing walk is
+    * amortized O(1) long and parent pointers are not read on the way.
+    * returns the same as insert(k, i).
+    * Complexity O(log n)
+    */
+   public int insertTopDown(int k, String i) {
+	   if (this.recorder != null) {
+		   this.recorder.record(TraceRecorder.INSERT, k, i);
+	   }
+	   if (this.reclaimPending) {
+		   this.reclaimVersions();
+	   }
+	   if (this.root == null) {
+		   this.setRoot(this.newNode(k,i));
+		   this.minNode = this.root;
+		   this.maxNode = this.root;
+		   return 0;
+	   }
+	   
+	   WAVLNode node = this.root;
+	   WAVLNode parent = null;
+	   WAVLNode safe = this.root;
+	   while (true) {
+		   node.setSubtreeSize(node.getSubtreeSize() + 1);
+		   if (node.getKey() == k) {
+			   if (this.multiset && !node.isDeleted()) {
+				   /* another occurrence - the sizes on the path already count it*/
+				   node.addOccurrence(i);
+				   return 0;
+			   }
+			   node.setValue(i);
+			   if (node.isDeleted()) {
+				   /* revive a tombstone - the sizes on the path already count it*/
+				   node.setDeleted(false);
+				   this.tombstones--;
+				   this.boundPending();
+				   return 0;
+			   }
+			   addAlongPath(k, -1);
+			   return -1;
+		   }
+		   WAVLNode next = node.getRight();
+		   WAVLNode offPath = node.getLeft();
+		   if (k < node.getKey()) {
+			   next = node.getLeft();
+			   offPath = node.getRight();
 		   }
-		   else {
-			   xSon = x.getRight();
+		   if (!passesPromotion(parent, node, offPath)) {
+			   safe = node;
+		   }
+		   if (!next.isRealNode()) {
+			   break;
 		   }
+		   parent = node;
+		   node = next;
+	   }
+	   
+	   boolean insertionPntIsLeaf = node.isLeaf();
+	   WAVLNode insertedNode = this.newNode(k,i);
+	   if(k < this.minNode.getKey()) {
+		   this.minNode = insertedNode;
+	   }
+	   if(k > this.maxNode.getKey()) {
+		   this.maxNode = insertedNode;
+	   }
+	   if (k < node.getKey()) {
+		   node.setLeft(insertedNode);
+	   }
+	   else {
+		   node.setRight(insertedNode);
+	   }
+	   if (!insertionPntIsLeaf) {
+		   return 0;
+	   }
+	   
+	   /* every node below safe is promoted and becomes a 0-child of its parent */
+	   int rebalanceOps = 0;
+	   WAVLNode curr = k < safe.getKey() ? safe.getLeft() : safe.getRight();
+	   while (curr != insertedNode) {
+		   curr.promoteRank();
+		   rebalanceOps++;
+		   curr = k < curr.getKey() ? curr.getLeft() : curr.getRight();
+	   }
+	   
+	   /* safe has a 0-child now: promote it, or rotate if the other child is a 2-child*/
+	   if (k < safe.getKey()) {
+		   if (safe.rankDif(safe.getRight()) == 1) {
+			   safe.promoteRank();
+			   return rebalanceOps + 1;
+		   }
+		   WAVLNode left = safe.getLeft();
+		   if (left.rankDif(left.getLeft()) == 1 && left.rankDif(left.getRight()) == 2) {
+			   singleRightRotation(safe);
+			   return rebalanceOps + 1;
+		   }
+		   doubleRotationLR(safe);
+		   return rebalanceOps + 2;
+	   }
+	   if (safe.rankDif(safe.getLeft()) == 1) {
+		   safe.promoteRank();
+		   return rebalanceOps + 1;
+	   }
+	   WAVLNode right = safe.getRight();
+	   if (right.rankDif(right.getRight()) == 1 && right.rankDif(right.getLeft()) == 2) {
+		   singleLeftRotation(safe);
+		   return rebalanceOps + 1;
+	   }
+	   doubleRotationRL(safe);
+	   return rebalanceOps + 2;
+   }
+   
+   /**
+    * private static boolean passesPromotion(WAVLNode parent, WAVLNode node, WAVLNode offPath)
+    *
+    * true iff a promotion chain reaching node from its other child continues to parent:
+    * node is promoted (offPath is a 1-child) and node is a 1-child of parent.
+    * Complexity O(1)
+    */
+   private static boolean passesPromotion(WAVLNode parent, WAVLNode node, WAVLNode offPath) {
+	   return parent != null && parent.rankDif(node) == 1 && node.rankDif(offPath) == 1;
+   }
+   
+   /**
+    * private void addAlongPath(int k, int count)
+    *
+    * adds count to the subtree sizes on the search path of k, undoing the
+    * sizes a top down pass changed for a key that turned out to exist / not to exist.
+    * Complexity O(log n)
+    */
+   private void addAlongPath(int k, int count) {
+	   WAVLNode node = this.root;
+	   while (node != null && node.isRealNode()) {
+		   node.setSubtreeSize(node.getSubtreeSize() + count);
+		   if (node.getKey() == k) {
+			   return;
+		   }
+		   node = k < node.getKey() ? node.getLeft() : node.getRight();
 	   }
-	   return x;
    }
    
    /**
@@ -429,7 +950,7 @@ private void delDoubleRotationRL (WAVLNode z) {
 */
    private static void rotationSizeUpdate (WAVLNode z, WAVLNode x) {
 	   x.setSubtreeSize(z.getSubtreeSize());
-	   z.setSubtreeSize(z.getRight().getSubtreeSize() + z.getLeft().getSubtreeSize() + 1 );
+	   z.setSubtreeSize(z.getRight().getSubtreeSize() + z.getLeft().getSubtreeSize() + z.liveCount());
    }
 
 /**
@@ -439,13 +960,67 @@ private void delDoubleRotationRL (WAVLNode z) {
    * the tree must remain valid (keep its invariants).
    * returns the number of rebalancing operations, or 0 if no rebalancing operations were needed.
    * returns -1 if an item with key k was not found in the tree.
+   * in lazy delete mode the item is only marked as a tombstone (see markDeleted).
+   * in multiset mode one occurrence of k is removed, the node only when it was the last one.
    */
    public int delete(int k) {
-	   WAVLNode toDelete = findInsertionPnt(k);
+	   return deleteAt(findInsertionPnt(k), k);
+   }
+   
+   /**
+    * private int deleteAt(WAVLNode toDelete, int k)
+    *
+    * delete(k) with the node found already, by findInsertionPnt or fingerSearch
+    * (the node with key k, or the last real node on its search path, null if the tree is empty).
+    * Complexity O(log n)
+    */
+   private int deleteAt(WAVLNode toDelete, int k) {
+	   if(this.recorder != null) {
+		   this.recorder.record(TraceRecorder.DELETE, k, null);
+	   }
+	   if(this.reclaimPending) {
+		   this.reclaimVersions();
+	   }
+	   if(this.lazyDelete) {
+		   return markDeleted(toDelete, k);
+	   }
+	   return erase(toDelete, k);
+   }
+   
+   private int erase(int k) {
+	   return erase(findInsertionPnt(k), k);
+   }
+   
+   /**
+    * private int erase(WAVLNode toDelete, int k)
+    *
+    * physically removes the node with key k from the tree and rebalances it.
+    * toDelete is the node with key k, or the last real node on its search path.
+    * returns the number of rebalancing operations, or -1 if k is not in the tree.
+    * Complexity O(log n)
+    */
+   private int erase(WAVLNode toDelete, int k) {
 	   if(toDelete==null || !toDelete.isReal || toDelete.getKey() != k) {
 		   return -1;
 	   }
+	   if(toDelete.getCount() > 1) {
+		   toDelete.removeOccurrence();
+		   updateSubtreeSize(toDelete, -1);
+		   return 0;
+	   }
 	   
+	   return removeNode(toDelete);
+   }
+   
+   /**
+    * private int removeNode(WAVLNode toDelete)
+    *
+    * physically removes toDelete from the tree, counted as a node of weight 1 in the subtree sizes.
+    * returns the number of rebalancing operations.
+    * Complexity O(log n)
+    */
+   private int removeNode(WAVLNode toDelete) {
+	   int k = toDelete.getKey();
 	   int res = 0;
 	   if(toDelete.isLeaf()) {
 		   res = deleteLeaf(toDelete);
@@ -485,16 +1060,18 @@ private void delDoubleRotationRL (WAVLNode z) {
 		   return rebalanceOps;
 	   }
 	   
-	   WAVLNode left = curr.getLeft();
-	   WAVLNode right = curr.getRight();
-	   if(curr.isLeaf() && curr.rankDif(left)==2 && curr.rankDif(right)==2) {
+	   WAVLNode left = curr.left;
+	   WAVLNode right = curr.right;
+	   int leftDif = curr.rank - left.rank;
+	   int rightDif = curr.rank - right.rank;
+	   if(leftDif==2 && rightDif==2 && !left.isReal && !right.isReal) {
 		   curr.demoteRank();
 		   return delRebalance(curr.getParent(), rebalanceOps + 1);
 	   }
 	   
-	   if(curr.rankDif(left)==3 || curr.rankDif(right)==3) {
+	   if(leftDif==3 || rightDif==3) {
 		   //**Case 1** curr is a 2,2 leaf
-		   if(curr.rankDif(left)==2 || curr.rankDif(right)==2) {
+		   if(leftDif==2 || rightDif==2) {
 			   curr.demoteRank();
 			   return delRebalance(curr.getParent(), rebalanceOps + 1);
 		   }
@@ -502,20 +1079,22 @@ private void delDoubleRotationRL (WAVLNode z) {
 		   // curr is a 3,1 node and y is the child with diff rank 1
 		   boolean leftDiffRank3 = false;
 		   WAVLNode y = left;
-		   if(curr.rankDif(left) == 3) {
+		   if(leftDif == 3) {
 			   leftDiffRank3 = true;
 			   y = right;
 		   }
+		   int yLeftDif = y.rank - y.left.rank;
+		   int yRightDif = y.rank - y.right.rank;
 
 		   //**Case 2 - double promote** y is a 2,2 node
-		   if(y.rankDif(y.getLeft()) == 2 && y.rankDif(y.getRight()) == 2) {
+		   if(yLeftDif == 2 && yRightDif == 2) {
 			   y.demoteRank();
 			   curr.demoteRank();
 			   return delRebalance(curr.getParent(), rebalanceOps + 2);
 		   }
 		   
 		   //**Case 3** 
-		   if(leftDiffRank3 && y.rankDif(y.getRight())==1) {
+		   if(leftDiffRank3 && yRightDif==1) {
 			   delSingleLeftRotation(curr);
 			   if(curr.isLeaf()) {
 				   curr.demoteRank();
@@ -523,7 +1102,7 @@ private void delDoubleRotationRL (WAVLNode z) {
 			   }
 			   return rebalanceOps + 1;
 		   }
-		   if(!leftDiffRank3 && y.rankDif(y.getLeft())==1) {
+		   if(!leftDiffRank3 && yLeftDif==1) {
 			   delSingleRightRotation(curr);
 			   if(curr.isLeaf()) {
 				   curr.demoteRank();
@@ -550,12 +1129,22 @@ private void delDoubleRotationRL (WAVLNode z) {
 		   suc = suc.getLeft();
 	   }
 	   
-	   int rebalanceOps = delete(suc.getKey());
+	   /* the successor is removed as a node of weight 1. its real weight (0 for
+	    * a tombstone, its count in multiset mode) moves with it to toDelete */
+	   int sucWeight = suc.liveCount();
+	   if(sucWeight != 1) {
+		   updateSubtreeSize(suc, 1 - sucWeight);
+	   }
+	   int rebalanceOps = removeNode(suc);
 	   toDelete.replace(suc);
+	   if(sucWeight != 1) {
+		   updateSubtreeSize(toDelete, sucWeight - 1);
+	   }
 	   return rebalanceOps;
    }
    
    public int deleteUnary(WAVLNode toDelete) {
+	   this.nodeCount--;
 	   WAVLNode x = toDelete.getRight();
 	   if(toDelete.getLeft()!=null && toDelete.getLeft().isRealNode()) {
 		   x = toDelete.getLeft(); 
@@ -630,6 +1219,7 @@ private void delDoubleRotationRL (WAVLNode z) {
    }
    
    public int deleteLeaf(WAVLNode toDelete) {
+	   this.nodeCount--;
 	   if(toDelete == this.getRoot()) {
 		   this.setRoot(null);
 		   return 0;
@@ -644,10 +1234,10 @@ private void delDoubleRotationRL (WAVLNode z) {
 	   }
 	   
 	   if(leftChild) { 
-		   z.setLeft(new WAVLNode());
+		   z.setLeft(this.virtualNode);
 	   }
 	   else { 
-		   z.setRight(new WAVLNode());
+		   z.setRight(this.virtualNode);
 	   }
 	   
 	   updateSubtreeSize(z, -1);
@@ -702,97 +1292,4750 @@ private void delDoubleRotationRL (WAVLNode z) {
 	   }
 	   return 2;   
    }   
-
+   
    /**
-   * public int[] keysToArray()
-   *
-   * Returns a sorted array which contains all keys in the tree,
-   * or an empty array if the tree is empty.
-   * Complexity O(n)
-   */
-   public int[] keysToArray() {
-	   int[] arr = new int[this.size()];
-	   if (this.size() == 0) {
-		   return arr;
+    * public int deleteTopDown(int k)
+    *
+    * same as delete(k), in a single top down pass.
+    * the descent to k (and on to its successor if k has two children) updates
+    * subtree sizes and keeps the deepest node where a demotion chain starting
+    * at the removed node would stop ("safe" node). after the removal only the
+    * path below that node is walked again, demoting top down, then the safe
+    * node is demoted or rotated. the rebalancing walk is amortized O(1) long.
+    * in lazy delete mode this is the same as delete(k).
+    * returns the same as delete(k).
+    * Complexity O(log n)
+    */
+   public int deleteTopDown(int k) {
+	   if (this.recorder != null) {
+		   this.recorder.record(TraceRecorder.DELETE, k, null);
 	   }
-	   List<WAVLNode> lst =getInOrderNodes((WAVLNode) this.getRoot());
-	   int i = 0;
-	   for (WAVLNode node: lst) {
-		   arr[i++] = node.getKey();
+	   if (this.reclaimPending) {
+		   this.reclaimVersions();
 	   }
-	   return arr;
-   }
-   
-   public List<WAVLNode> getInOrderNodes(WAVLNode node){
-	   List<WAVLNode> newLst = new ArrayList<WAVLNode>();
-	   if (node.getLeft().isRealNode()) {
-		   newLst.addAll(getInOrderNodes(node.getLeft()));
+	   if (this.lazyDelete) {
+		   return markDeleted(findInsertionPnt(k), k);
 	   }
-	   newLst.add(node);
-	   if (node.getRight().isRealNode()) {
-		   newLst.addAll(getInOrderNodes(node.getRight()));
+	   
+	   WAVLNode node = this.root;
+	   WAVLNode parent = null;
+	   WAVLNode grandParent = null;
+	   WAVLNode found = null;
+	   WAVLNode safe = null;
+	   boolean parentStops = false;
+	   while (node != null && node.isRealNode()) {
+		   node.setSubtreeSize(node.getSubtreeSize() - 1);
+		   if (found == null && node.getKey() == k) {
+			   found = node;
+			   if (found.getCount() > 1) {
+				   /* one occurrence less - the sizes above already dropped it*/
+				   found.removeOccurrence();
+				   return 0;
+			   }
+		   }
+		   WAVLNode next;
+		   WAVLNode offPath;
+		   if (found == null) {
+			   next = k < node.getKey() ? node.getLeft() : node.getRight();
+			   offPath = k < node.getKey() ? node.getRight() : node.getLeft();
+		   }
+		   else if (node == found) {
+			   /* a binary node is replaced by its successor, which is removed instead*/
+			   next = node.getLeft().isRealNode() ? node.getRight() : node.getLeft();
+			   offPath = node.getLeft();
+		   }
+		   else {
+			   next = node.getLeft();
+			   offPath = node.getRight();
+		   }
+		   if (!next.isRealNode()) {
+			   break;
+		   }
+		   /* node is not the removed node, so parent is above the removed node's parent */
+		   if (parentStops) {
+			   safe = parent;
+		   }
+		   parentStops = !passesDemotion(parent, node, offPath);
+		   grandParent = parent;
+		   parent = node;
+		   node = next;
+	   }
+	   if (found == null) {
+		   addAlongPath(k, 1);
+		   return -1;
 	   }
 	   
-	   return newLst;
-   }
-  
-    
-  /**
-   * public String[] infoToArray()
-   *
-   * Returns an array which contains all info in the tree,
-   * sorted by their respective keys,
-   * or an empty array if the tree is empty.
-   * Complexity O(n)
-   */
-  public String[] infoToArray()
-  {
-	   String[] arr = new String[this.size()];
-	   if (this.size() == 0) {
-		   return arr;
+	   WAVLNode removed = node;
+	   this.nodeCount--;
+	   WAVLNode z = parent;
+	   WAVLNode child = removed.getLeft();
+	   if (!child.isRealNode()) {
+		   child = removed.getRight().isRealNode() ? removed.getRight() : this.virtualNode;
 	   }
-	   List<WAVLNode> lst =getInOrderNodes((WAVLNode) this.getRoot());
-	   int i = 0;
-	   for (WAVLNode node: lst) {
-		   arr[i++] = node.getValue();
+	   
+	   // update min / max - node identities do not change in rotations
+	   if (this.minNode == removed) {
+		   this.minNode = child.isRealNode() ? child : z;
 	   }
-	   return arr;
-  }
-  
-  
-  
-   /**
-    * public int select(int i)
-    *
-    * Returns the value of the i'th smallest key (return -1 if tree is empty)
-    * Example 1: select(1) returns the value of the node with minimal key 
-	* Example 2: select(size()) returns the value of the node with maximal key 
-	* Example 3: select(2) returns the value 2nd smallest minimal node, i.e the value of the node minimal node's successor 	
-    *
-	* precondition: size() >= i > 0
-    * postcondition: none
+	   if (this.maxNode == removed) {
+		   this.maxNode = removed == found ? (child.isRealNode() ? child : z) : found;
+	   }
+	   
+	   if (z == null) {
+		   this.setRoot(child.isRealNode() ? child : null);
+		   return 0;
+	   }
+	   boolean wasOneChild = z.rankDif(removed) == 1;
+	   if (z.getLeft() == removed) {
+		   z.setLeft(child);
+	   }
+	   else {
+		   z.setRight(child);
+	   }
+	   if (removed != found) {
+		   found.replace(removed);
+		   /* the nodes between found and removed lost all the occurrences of removed, not one*/
+		   int extra = removed.getCount() - 1;
+		   for (WAVLNode curr = found.getRight(); extra > 0 && z != found; curr = curr.getLeft()) {
+			   curr.setSubtreeSize(curr.getSubtreeSize() - extra);
+			   if (curr == z) {
+				   break;
+			   }
+		   }
+	   }
+	   
+	   /* child is a 2-child (problem only if z became a 2,2 leaf) or a 3-child of z*/
+	   boolean leafProblem = wasOneChild && z.isLeaf();
+	   if (wasOneChild && !leafProblem) {
+		   return 0;
+	   }
+	   WAVLNode zOffPath = z.getLeft() == child ? z.getRight() : z.getLeft();
+	   boolean zPasses = leafProblem ? (grandParent != null && grandParent.rankDif(z) == 2) : passesDemotion(grandParent, z, zOffPath);
+	   WAVLNode top = zPasses ? safe : z;
+	   
+	   /* every node below top is demoted (with its other child if that is a 2,2 node) */
+	   int rebalanceOps = 0;
+	   int target = removed.getKey();
+	   WAVLNode curr = top;
+	   while (curr != z) {
+		   curr = target < curr.getKey() ? curr.getLeft() : curr.getRight();
+		   WAVLNode pathChild = curr == z ? child : (target < curr.getKey() ? curr.getLeft() : curr.getRight());
+		   WAVLNode y = curr.getLeft() == pathChild ? curr.getRight() : curr.getLeft();
+		   if (!(curr == z && leafProblem) && curr.rankDif(y) == 1) {
+			   y.demoteRank();
+			   rebalanceOps++;
+		   }
+		   curr.demoteRank();
+		   rebalanceOps++;
+	   }
+	   
+	   /* top has a 3-child (or is a 2,2 leaf) and the problem stops at it*/
+	   if (top == z && leafProblem) {
+		   z.demoteRank();
+		   return rebalanceOps + 1;
+	   }
+	   WAVLNode pathChild = top == z ? child : (target < top.getKey() ? top.getLeft() : top.getRight());
+	   boolean leftDiffRank3 = top.getLeft() == pathChild;
+	   WAVLNode y = leftDiffRank3 ? top.getRight() : top.getLeft();
+	   if (top.rankDif(y) == 2) {
+		   top.demoteRank();
+		   return rebalanceOps + 1;
+	   }
+	   if (y.rankDif(y.getLeft()) == 2 && y.rankDif(y.getRight()) == 2) {
+		   y.demoteRank();
+		   top.demoteRank();
+		   return rebalanceOps + 2;
+	   }
+	   if ((leftDiffRank3 && y.rankDif(y.getRight()) == 1) || (!leftDiffRank3 && y.rankDif(y.getLeft()) == 1)) {
+		   if (leftDiffRank3) {
+			   delSingleLeftRotation(top);
+		   }
+		   else {
+			   delSingleRightRotation(top);
+		   }
+		   if (top.isLeaf()) {
+			   top.demoteRank();
+			   rebalanceOps++;
+		   }
+		   return rebalanceOps + 1;
+	   }
+	   if (leftDiffRank3) {
+		   delDoubleRotationRL(top);
+	   }
+	   else {
+		   delDoubleRotationLR(top);
+	   }
+	   return rebalanceOps + 2;
+   }
+   
+   /**
+    * private static boolean passesDemotion(WAVLNode parent, WAVLNode node, WAVLNode offPath)
+    *
+    * true iff a demotion chain reaching node through a 3-child continues to parent:
+    * node is demoted (offPath is a 2-child or a 2,2 node) and node is a 2-child of parent.
+    * Complexity O(1)
+    */
+   private static boolean passesDemotion(WAVLNode parent, WAVLNode node, WAVLNode offPath) {
+	   if (parent == null || parent.rankDif(node) != 2) {
+		   return false;
+	   }
+	   if (node.rankDif(offPath) == 2) {
+		   return true;
+	   }
+	   return offPath.isRealNode() && offPath.rankDif(offPath.getLeft()) == 2 && offPath.rankDif(offPath.getRight()) == 2;
+   }
+   
+   /**
+    * public void setLazyDelete(boolean lazyDelete)
+    *
+    * turns lazy delete mode on or off. in lazy mode delete(k) only marks the
+    * node as a tombstone. turning the mode off removes all existing tombstones.
+    * Complexity O(1), or O(n) if tombstones have to be removed
+    */
+   public void setLazyDelete(boolean lazyDelete) {
+	   this.lazyDelete = lazyDelete;
+	   if(!lazyDelete && this.tombstones > 0) {
+		   this.rebuild();
+	   }
+   }
+   
+   public boolean isLazyDelete() {
+	   return this.lazyDelete;
+   }
+   
+   /**
+    * public int tombstoneCount()
+    *
+    * Returns the number of deleted nodes that are still physically in the tree.
+    * Complexity O(1)
+    */
+   public int tombstoneCount() {
+	   return this.tombstones;
+   }
+   
+   /**
+    * private int markDeleted(WAVLNode toDelete, int k)
+    *
+    * marks the node with key k as a tombstone. toDelete is that node, or the
+    * last real node on the search path of k. the node stays in the tree but
+    * is not counted in subtree sizes, so select and size ignore it.
+    * the tree is rebuilt once the tombstones outnumber the live keys.
+    * returns 0 (no rebalancing), or -1 if k is not in the tree.
+    * Complexity O(log n) amortized
+    */
+   private int markDeleted(WAVLNode toDelete, int k) {
+	   if(toDelete==null || !toDelete.isRealNode() || toDelete.getKey() != k || toDelete.isDeleted()) {
+		   return -1;
+	   }
+	   if(toDelete.getCount() > 1) {
+		   toDelete.removeOccurrence();
+		   updateSubtreeSize(toDelete, -1);
+		   return 0;
+	   }
+	   toDelete.setDeleted(true);
+	   this.tombstones++;
+	   updateSubtreeSize(toDelete, -1);
+	   /* a revived node keeps its queue entry, so a delete / insert cycle does not grow the queue*/
+	   if(!toDelete.queued) {
+		   toDelete.queued = true;
+		   this.pendingTombstones.add(k);
+		   this.boundPending();
+	   }
+	   if(this.tombstones > this.size()) {
+		   this.rebuild();
+	   }
+	   return 0;
+   }
+   
+   /* keeps the tombstone queue to 2 * tombstones + PENDING_SLACK keys, see dropStaleTombstones()*/
+   private void boundPending() {
+	   if(this.pendingTombstones.size() > 2 * this.tombstones + PENDING_SLACK) {
+		   this.dropStaleTombstones();
+	   }
+   }
+   
+   /**
+    * private void dropStaleTombstones()
+    *
+    * drops the queue entries of revived or removed keys, leaving one per tombstone.
+    * it runs once the queue exceeds 2 * tombstones + PENDING_SLACK keys (after a delete
+    * or a revive), so at least half the keys it looks up are dropped - O(log n)
+    * amortized per queued key.
+    * Complexity O(queue length * log n)
+    */
+   private void dropStaleTombstones() {
+	   ArrayDeque<Integer> pending = new ArrayDeque<Integer>();
+	   for(int k: this.pendingTombstones) {
+		   WAVLNode node = findInsertionPnt(k);
+		   if(node == null || node.getKey() != k || !node.queued) {
+			   continue; // removed, or a duplicate of a key queued again after its removal
+		   }
+		   if(node.isDeleted()) {
+			   pending.add(k);
+		   }
+		   else {
+			   node.queued = false;
+		   }
+	   }
+	   this.pendingTombstones = pending;
+   }
+   
+   /**
+    * public int compact(int maxSteps)
+    *
+    * physically removes at most maxSteps tombstones from the tree, oldest first.
+    * meant to be called in quiet periods so the rebalancing cost of the
+    * deletes is paid in bounded steps. a queue entry of a key that was revived
+    * or removed meanwhile takes a step too.
+    * returns the number of tombstones removed.
+    * Complexity O(maxSteps * log n)
+    */
+   public int compact(int maxSteps) {
+	   int removed = 0;
+	   for(int steps = 0; steps < maxSteps && !this.pendingTombstones.isEmpty(); steps++) {
+		   int k = this.pendingTombstones.poll();
+		   WAVLNode node = findInsertionPnt(k);
+		   if(node == null || node.getKey() != k || !node.queued) {
+			   continue; // removed, or a duplicate of a key queued again after its removal
+		   }
+		   node.queued = false;
+		   if(!node.isDeleted()) {
+			   continue; // revived
+		   }
+		   node.setDeleted(false);
+		   this.tombstones--;
+		   updateSubtreeSize(node, 1);
+		   erase(k);
+		   removed++;
+	   }
+	   return removed;
+   }
+   
+   /**
+    * public void rebuild()
+    *
+    * rebuilds the tree as a perfectly balanced tree of its live nodes,
+    * dropping all tombstones. a balanced tree whose ranks are the node
+    * heights is a valid WAVL tree.
+    * Complexity O(n)
+    */
+   public void rebuild() {
+	   List<WAVLNode> live = new ArrayList<WAVLNode>();
+	   if(this.getRoot() != null) {
+		   for(WAVLNode node: getInOrderNodes((WAVLNode) this.getRoot())) {
+			   if(!node.isDeleted()) {
+				   node.queued = false;
+				   live.add(node);
+			   }
+		   }
+	   }
+	   this.tombstones = 0;
+	   this.pendingTombstones.clear();
+	   this.nodeCount = live.size();
+	   if(live.isEmpty()) {
+		   this.setRoot(null);
+		   this.minNode = null;
+		   this.maxNode = null;
+		   return;
+	   }
+	   this.setRoot(buildBalanced(live, 0, live.size() - 1));
+	   this.minNode = live.get(0);
+	   this.maxNode = live.get(live.size() - 1);
+   }
+   
+   /**
+    * private WAVLNode buildBalanced(List<WAVLNode> nodes, int lo, int hi)
+    *
+    * links nodes[lo..hi] (sorted by key) into a balanced subtree and returns its root,
+    * or the virtual node if the range is empty.
+    * Complexity O(hi - lo)
+    */
+   private WAVLNode buildBalanced(List<WAVLNode> nodes, int lo, int hi) {
+	   if(lo > hi) {
+		   return this.virtualNode;
+	   }
+	   int mid = (lo + hi) >>> 1;
+	   WAVLNode node = nodes.get(mid);
+	   WAVLNode left = buildBalanced(nodes, lo, mid - 1);
+	   WAVLNode right = buildBalanced(nodes, mid + 1, hi);
+	   node.setLeft(left);
+	   node.setRight(right);
+	   node.setRank(Math.max(left.getRank(), right.getRank()) + 1);
+	   node.setSubtreeSize(left.getSubtreeSize() + right.getSubtreeSize() + node.liveCount());
+	   return node;
+   }
+
+   /**
+    * public void clear()
+    *
+    * removes every item at once. the nodes are dropped as a whole, so open
+    * snapshots keep reading them.
+    * Complexity O(1), plus O(number of tombstones) to drop their queue
+    */
+   public void clear() {
+	   if (this.reclaimPending) {
+		   this.reclaimVersions();
+	   }
+	   this.setRoot(null);
+	   this.minNode = null;
+	   this.maxNode = null;
+	   this.nodeCount = 0;
+	   this.tombstones = 0;
+	   this.pendingTombstones.clear();
+	   this.hitsSinceRestructure = 0;
+   }
+   
+   /**
+    * public int removeBelow(int k)
+    *
+    * removes every item with a key smaller than k with a single split instead of one delete per item:
+    * the nodes of the search path for k that are >= k are kept with their right subtrees
+    * and joined back bottom up, everything else is dropped as a whole.
+    * returns the number of items removed (occurrences in multiset mode, tombstones not counted).
+    * Complexity O(log n), plus O(number of removed nodes) with tombstones or in multiset mode -
+    * the removed nodes are walked then to keep the node and tombstone counters
+    */
+   public int removeBelow(int k) {
+	   if (this.reclaimPending) {
+		   this.reclaimVersions();
+	   }
+	   if (this.minNode == null || this.minNode.getKey() >= k) {
+		   return 0;
+	   }
+	   int oldSize = this.size();
+	   /* otherwise every removed node is one removed item*/
+	   boolean countNodes = this.tombstones > 0 || this.multiset;
+	   if (countNodes) {
+		   for (WAVLNode node = this.minNode; node != null && node.getKey() < k; node = successor(node)) {
+			   if (node.isDeleted()) {
+				   this.tombstones--;
+			   }
+			   this.nodeCount--;
+		   }
+	   }
+
+	   /* the kept path nodes, top down - each one is smaller than the one before*/
+	   List<WAVLNode> kept = new ArrayList<WAVLNode>();
+	   WAVLNode node = this.root;
+	   while (node.isReal) {
+		   if (node.key < k) {
+			   node = node.right;
+		   }
+		   else {
+			   kept.add(node);
+			   node = node.left;
+		   }
+	   }
+	   WAVLNode joined = this.virtualNode;
+	   for (int j = kept.size() - 1; j >= 0; j--) {
+		   WAVLNode x = kept.get(j);
+		   WAVLNode right = x.getRight();
+		   if (right.isRealNode()) {
+			   right.setParent(null);
+		   }
+		   joined = join(joined, x, right);
+	   }
+
+	   if (!joined.isRealNode()) {
+		   this.setRoot(null);
+		   this.minNode = null;
+		   this.maxNode = null;
+	   }
+	   else {
+		   this.setRoot(joined);
+		   node = joined;
+		   while (node.getLeft().isRealNode()) {
+			   node = node.getLeft();
+		   }
+		   this.minNode = node;
+	   }
+	   int removed = oldSize - this.size();
+	   if (!countNodes) {
+		   this.nodeCount -= removed;
+	   }
+	   return removed;
+   }
+
+   /**
+    * private WAVLNode join(WAVLNode left, WAVLNode x, WAVLNode right)
+    *
+    * links the WAVL trees left and right (either maybe the virtual node) with x between them
+    * and returns the root of the result. every key of left is smaller than x's, every key of right larger.
+    * x is hung on the spine of the higher tree where the ranks meet and the insertion
+    * rebalancing is run from there. uses this tree's root while it works.
+    * precondition: the roots of left and right have no parent
+    * Complexity O(|rank(left) - rank(right)| + 1), amortized
+    */
+   private WAVLNode join(WAVLNode left, WAVLNode x, WAVLNode right) {
+	   int leftRank = left.getRank();
+	   int rightRank = right.getRank();
+	   if (Math.abs(leftRank - rightRank) <= 1) {
+		   x.setLeft(left);
+		   x.setRight(right);
+		   x.setRank(Math.max(leftRank, rightRank) + 1);
+		   x.setSubtreeSize(left.getSubtreeSize() + right.getSubtreeSize() + x.liveCount());
+		   x.setParent(null);
+		   return x;
+	   }
+	   WAVLNode parent = null;
+	   WAVLNode y;
+	   if (leftRank > rightRank) {
+		   /* down the right spine of left to the first node of rank <= rank(right) + 1*/
+		   y = left;
+		   while (y.getRank() > rightRank + 1) {
+			   parent = y;
+			   y = y.getRight();
+		   }
+		   x.setLeft(y);
+		   x.setRight(right);
+		   x.setRank(Math.max(y.getRank(), rightRank) + 1);
+		   parent.setRight(x);
+		   this.setRoot(left);
+	   }
+	   else {
+		   y = right;
+		   while (y.getRank() > leftRank + 1) {
+			   parent = y;
+			   y = y.getLeft();
+		   }
+		   x.setLeft(left);
+		   x.setRight(y);
+		   x.setRank(Math.max(y.getRank(), leftRank) + 1);
+		   parent.setLeft(x);
+		   this.setRoot(right);
+	   }
+	   x.setSubtreeSize(x.getLeft().getSubtreeSize() + x.getRight().getSubtreeSize() + x.liveCount());
+	   updateSubtreeSize(parent, x.getSubtreeSize() - y.getSubtreeSize());
+
+	   /* x is one above y, so it is a 0-child of parent or fine*/
+	   if (parent.getRank() == x.getRank()) {
+		   WAVLNode sibling = parent.getLeft() == x ? parent.getRight() : parent.getLeft();
+		   boolean oneOne = x.getRank() - x.getLeft().getRank() == 1 && x.getRank() - x.getRight().getRank() == 1;
+		   if (oneOne && parent.getRank() - sibling.getRank() == 2) {
+			   /* a 1,1 0-child cannot occur after an insertion: rotate it up and promote it instead of demoting parent*/
+			   if (parent.getLeft() == x) {
+				   singleRightRotation(parent);
+			   }
+			   else {
+				   singleLeftRotation(parent);
+			   }
+			   parent.promoteRank();
+			   x.promoteRank();
+			   WAVLNode above = x.getParent();
+			   if (above != null && above.getRank() == x.getRank()) {
+				   rebalance(above, 0);
+			   }
+		   }
+		   else {
+			   rebalance(parent, 0);
+		   }
+	   }
+	   return this.root;
+   }
+
+   /**
+    * private static WAVLNode successor(WAVLNode node)
+    *
+    * returns the node after node in key order, or null if node is the largest.
+    * Complexity O(log n), amortized O(1) along an in-order walk
+    */
+   private static WAVLNode successor(WAVLNode node) {
+	   if (node.getRight().isRealNode()) {
+		   node = node.getRight();
+		   while (node.getLeft().isRealNode()) {
+			   node = node.getLeft();
+		   }
+		   return node;
+	   }
+	   WAVLNode parent = node.getParent();
+	   while (parent != null && parent.getRight() == node) {
+		   node = parent;
+		   parent = parent.getParent();
+	   }
+	   return parent;
+   }
+
+   /**
+   * public int[] keysToArray()
+   *
+   * Returns a sorted array which contains all keys in the tree,
+   * or an empty array if the tree is empty.
+   * Complexity O(n)
+   */
+   public int[] keysToArray() {
+	   int[] arr = new int[this.size()];
+	   if (this.size() == 0) {
+		   return arr;
+	   }
+	   List<WAVLNode> lst =getInOrderNodes((WAVLNode) this.getRoot());
+	   int i = 0;
+	   for (WAVLNode node: lst) {
+		   for (int j = 0; j < node.liveCount(); j++) {
+			   arr[i++] = node.getKey();
+		   }
+	   }
+	   return arr;
+   }
+   
+   public List<WAVLNode> getInOrderNodes(WAVLNode node){
+	   List<WAVLNode> newLst = new ArrayList<WAVLNode>();
+	   if (node.getLeft().isRealNode()) {
+		   newLst.addAll(getInOrderNodes(node.getLeft()));
+	   }
+	   newLst.add(node);
+	   if (node.getRight().isRealNode()) {
+		   newLst.addAll(getInOrderNodes(node.getRight()));
+	   }
+	   
+	   return newLst;
+   }
+   
+   /**
+    * public int[] keysInRange(int lo, int hi)
+    *
+    * Returns a sorted array of the keys k in the tree with lo <= k <= hi.
+    * Complexity O(log n + number of keys in the range)
+    */
+   public int[] keysInRange(int lo, int hi) {
+	   List<WAVLNode> lst = new ArrayList<WAVLNode>();
+	   collectRange(this.root, lo, hi, lst);
+	   int length = 0;
+	   for (WAVLNode node: lst) {
+		   length += node.liveCount();
+	   }
+	   int[] arr = new int[length];
+	   int i = 0;
+	   for (WAVLNode node: lst) {
+		   for (int j = 0; j < node.liveCount(); j++) {
+			   arr[i++] = node.getKey();
+		   }
+	   }
+	   return arr;
+   }
+   
+   private void collectRange(WAVLNode node, int lo, int hi, List<WAVLNode> lst) {
+	   if (node == null || !node.isRealNode()) {
+		   return;
+	   }
+	   if (node.getKey() > lo) {
+		   collectRange(node.getLeft(), lo, hi, lst);
+	   }
+	   if (node.getKey() >= lo && node.getKey() <= hi && !node.isDeleted()) {
+		   lst.add(node);
+	   }
+	   if (node.getKey() < hi) {
+		   collectRange(node.getRight(), lo, hi, lst);
+	   }
+   }
+   
+   /**
+    * public void setValueDictionary(ValueDictionary dictionary)
+    *
+    * stores the infos of this tree as codes of the given dictionary
+    * (or as plain strings if dictionary == null). the dictionary can be
+    * shared by trees used from the same thread.
+    * precondition: the tree is empty
+    * Complexity O(1)
+    */
+   public void setValueDictionary(ValueDictionary dictionary) {
+	   if (this.root != null) {
+		   throw new IllegalStateException("the value dictionary can only be set on an empty tree");
+	   }
+	   if (this.multiset && dictionary != null) {
+		   throw new IllegalStateException("multiset mode does not support a value dictionary");
+	   }
+	   this.dictionary = dictionary;
+   }
+   
+   public ValueDictionary getValueDictionary() {
+	   return this.dictionary;
+   }
+   
+   /* a new real node with key k and info i, a CodedNode if the tree has a value dictionary */
+   private WAVLNode newNode(int k, String i) {
+	   if (this.dictionary != null) {
+		   return new CodedNode(this, k, i);
+	   }
+	   return new PlainNode(this, k, i);
+   }
+   
+   /**
+    * public void setMultiset(boolean multiset)
+    *
+    * turns multiset mode on or off. in multiset mode inserting an existing key
+    * adds an occurrence of it (with its own info) instead of overwriting the info,
+    * and subtree sizes, size(), select(i) and rank(k) count every occurrence.
+    * precondition: the tree is empty
+    * Complexity O(1)
+    */
+   public void setMultiset(boolean multiset) {
+	   if (this.root != null) {
+		   throw new IllegalStateException("multiset mode can only be set on an empty tree");
+	   }
+	   if (multiset && this.dictionary != null) {
+		   throw new IllegalStateException("multiset mode does not support a value dictionary");
+	   }
+	   this.multiset = multiset;
+   }
+   
+   public boolean isMultiset() {
+	   return this.multiset;
+   }
+   
+   /**
+    * public int count(int k)
+    *
+    * Returns the number of occurrences of key k in the tree (at most 1 unless in multiset mode).
     * Complexity O(log n)
-    */   
-   public String select(int i)
-   {
-	   if ((this.empty()||(i>this.size()))) {
+    */
+   public int count(int k) {
+	   WAVLNode node = findInsertionPnt(k);
+	   if (node == null || node.getKey() != k) {
+		   return 0;
+	   }
+	   return node.liveCount();
+   }
+   
+   /**
+    * public int rank(int k)
+    *
+    * Returns the number of items in the tree with a key smaller than k.
+    * select(rank(k) + 1) is the first item with key >= k.
+    * Complexity O(log n)
+    */
+   public int rank(int k) {
+	   int rank = 0;
+	   WAVLNode node = this.root;
+	   while (node != null && node.isReal) {
+		   if (node.key < k) {
+			   rank += node.left.subtreeSize + node.liveCount();
+			   node = node.right;
+		   }
+		   else {
+			   node = node.left;
+		   }
+	   }
+	   return rank;
+   }
+   
+   /**
+    * public int[] keysWithValue(String value)
+    *
+    * Returns a sorted array of the keys whose info equals value.
+    * with a value dictionary the infos are compared by their codes, without decoding.
+    * Complexity O(n)
+    */
+   public int[] keysWithValue(String value) {
+	   if (this.root == null) {
+		   return new int[0];
+	   }
+	   List<WAVLNode> lst = getInOrderNodes(this.root);
+	   int[] arr = new int[this.size()];
+	   int i = 0;
+	   if (this.dictionary != null) {
+		   int code = this.dictionary.codeOf(value);
+		   if (code == -1 && value != null) {
+			   return new int[0];
+		   }
+		   for (WAVLNode node: lst) {
+			   if (node.infoCode() == code && !node.isDeleted()) {
+				   arr[i++] = node.getKey();
+			   }
+		   }
+	   }
+	   else {
+		   for (WAVLNode node: lst) {
+			   for (int j = 0; j < node.liveCount(); j++) {
+				   if (Objects.equals(value, node.getOccurrenceValue(j))) {
+					   arr[i++] = node.getKey();
+				   }
+			   }
+		   }
+	   }
+	   return Arrays.copyOf(arr, i);
+   }
+   
+   /**
+    * public static WAVLTree fromSorted(int[] keys, String[] infos)
+    *
+    * builds a balanced tree from keys sorted in increasing order, without duplicates,
+    * and their infos.
+    * Complexity O(n)
+    */
+   public static WAVLTree fromSorted(int[] keys, String[] infos) {
+	   WAVLTree tree = new WAVLTree();
+	   List<WAVLNode> nodes = new ArrayList<WAVLNode>(keys.length);
+	   for (int i = 0; i < keys.length; i++) {
+		   nodes.add(tree.newNode(keys[i], infos[i]));
+	   }
+	   if (!nodes.isEmpty()) {
+		   tree.setRoot(tree.buildBalanced(nodes, 0, nodes.size() - 1));
+		   tree.minNode = nodes.get(0);
+		   tree.maxNode = nodes.get(nodes.size() - 1);
+	   }
+	   return tree;
+   }
+  
+    
+  /**
+   * public String[] infoToArray()
+   *
+   * Returns an array which contains all info in the tree,
+   * sorted by their respective keys,
+   * or an empty array if the tree is empty.
+   * Complexity O(n)
+   */
+  public String[] infoToArray()
+  {
+	   String[] arr = new String[this.size()];
+	   if (this.size() == 0) {
+		   return arr;
+	   }
+	   List<WAVLNode> lst =getInOrderNodes((WAVLNode) this.getRoot());
+	   int i = 0;
+	   for (WAVLNode node: lst) {
+		   for (int j = 0; j < node.liveCount(); j++) {
+			   arr[i++] = node.getOccurrenceValue(j);
+		   }
+	   }
+	   return arr;
+  }
+  
+  
+  
+   /**
+    * public int select(int i)
+    *
+    * Returns the value of the i'th smallest key (return -1 if tree is empty)
+    * Example 1: select(1) returns the value of the node with minimal key 
+	* Example 2: select(size()) returns the value of the node with maximal key 
+	* Example 3: select(2) returns the value 2nd smallest minimal node, i.e the value of the node minimal node's successor 	
+    *
+	* precondition: size() >= i > 0
+    * postcondition: none
+    * Complexity O(log n)
+    */   
+   public String select(int i)
+   {
+	   if (this.recorder != null) {
+		   this.recorder.record(TraceRecorder.SELECT, i, null);
+	   }
+	   if ((this.empty()||(i>this.size())||(i<1))) {
+		   return "-1";
+	   }
+	   return selectRec(i-1, this.root);
+   }
+
+   /* tombstones are skipped - they are not counted in the subtree sizes */
+   public static String selectRec (int i, WAVLNode x) {
+	   int r = x.getLeft().getSubtreeSize();
+	   int self = x.liveCount();
+	   if (i>=r && i<r+self) {
+		   return x.getOccurrenceValue(i - r);
+	   }
+	   else if (i<r) {
+		   return selectRec(i, x.getLeft());
+	   }
+	   else {
+		   return selectRec (i - r - self,x.getRight());
+	   }
+	   
+   }
+   
+   /**
+    * public boolean validate()
+    *
+    * Returns true iff the tree keeps all its invariants:
+    * virtual nodes have rank -1, rank differences are 1 or 2, leaves are 1,1 nodes (rank 0),
+    * keys are in search tree order, subtree sizes count the live nodes,
+    * parent pointers of the real nodes, minNode / maxNode and the tombstone count are correct.
+    * Complexity O(n)
+    */
+   public boolean validate() {
+	   return this.findViolation() == null;
+   }
+   
+   /**
+    * String findViolation()
+    *
+    * Returns a description of the first broken invariant found, or null if the tree is valid.
+    * Complexity O(n)
+    */
+   String findViolation() {
+	   WAVLNode virtual = this.virtualNode;
+	   if (virtual.rank != -1 || virtual.subtreeSize != 0 || virtual.parent != null || virtual.left != null || virtual.right != null) {
+		   return "the shared virtual node was written";
+	   }
+	   if (this.root == null) {
+		   if (this.nodeCount != 0) {
+			   return "empty tree with node count " + this.nodeCount;
+		   }
+		   if (this.minNode != null || this.maxNode != null) {
+			   return "empty tree with minNode / maxNode set";
+		   }
+		   if (this.tombstones != 0) {
+			   return "empty tree with " + this.tombstones + " tombstones";
+		   }
+		   return null;
+	   }
+	   if (this.root.getParent() != null) {
+		   return "root has a parent";
+	   }
+	   int[] counts = new int[2];
+	   String violation = findViolation(this.root, Long.MIN_VALUE, Long.MAX_VALUE, counts);
+	   if (violation != null) {
+		   return violation;
+	   }
+	   if (counts[0] != this.tombstones) {
+		   return "tombstone count " + this.tombstones + " but " + counts[0] + " tombstones in the tree";
+	   }
+	   if (counts[1] != this.nodeCount) {
+		   return "node count " + this.nodeCount + " but " + counts[1] + " nodes in the tree";
+	   }
+	   WAVLNode node = this.root;
+	   while (node.getLeft().isRealNode()) {
+		   node = node.getLeft();
+	   }
+	   if (node != this.minNode) {
+		   return "minNode is not the leftmost node " + node.getKey();
+	   }
+	   node = this.root;
+	   while (node.getRight().isRealNode()) {
+		   node = node.getRight();
+	   }
+	   if (node != this.maxNode) {
+		   return "maxNode is not the rightmost node " + node.getKey();
+	   }
+	   return null;
+   }
+   
+   /* checks the subtree of node, whose keys must be in (lo, hi). adds its tombstones to counts[0], its real nodes to counts[1] */
+   private static String findViolation(WAVLNode node, long lo, long hi, int[] counts) {
+	   if (!node.isRealNode()) {
+		   if (node.getRank() != -1 || node.getSubtreeSize() != 0 || node.isDeleted()) {
+			   return "virtual node with rank " + node.getRank() + ", size " + node.getSubtreeSize();
+		   }
+		   return null;
+	   }
+	   int key = node.getKey();
+	   if (key <= lo || key >= hi) {
+		   return "key " + key + " out of search tree order";
+	   }
+	   WAVLNode left = node.getLeft();
+	   WAVLNode right = node.getRight();
+	   if (left == null || right == null) {
+		   return "node " + key + " is missing a child";
+	   }
+	   if ((left.isRealNode() && left.getParent() != node) || (right.isRealNode() && right.getParent() != node)) {
+		   return "wrong parent pointer under node " + key;
+	   }
+	   if (node.rankDif(left) < 1 || node.rankDif(left) > 2 || node.rankDif(right) < 1 || node.rankDif(right) > 2) {
+		   return "node " + key + " is a " + node.rankDif(left) + "," + node.rankDif(right) + " node";
+	   }
+	   if (node.isLeaf() && node.getRank() != 0) {
+		   return "leaf " + key + " has rank " + node.getRank();
+	   }
+	   if (node.getCount() < 1 || (node.getCount() > 1 && (node.isDeleted() || node.bucket == null || node.bucket.length < node.getCount() - 1))) {
+		   return "node " + key + " has count " + node.getCount();
+	   }
+	   if (node.getSubtreeSize() != left.getSubtreeSize() + right.getSubtreeSize() + node.liveCount()) {
+		   return "node " + key + " has subtree size " + node.getSubtreeSize();
+	   }
+	   if (node.isDeleted()) {
+		   counts[0]++;
+	   }
+	   counts[1]++;
+	   String violation = findViolation(left, lo, key, counts);
+	   if (violation != null) {
+		   return violation;
+	   }
+	   return findViolation(right, key, hi, counts);
+   }
+   
+   /**
+    * public Snapshot snapshot()
+    *
+    * Returns a consistent read only view of the tree as it is now.
+    * Later inserts and deletes do not show in the snapshot and are not blocked by it:
+    * the first write to a node that an open snapshot can see keeps the old field
+    * values as a version of the node. Versions are reclaimed once no open snapshot
+    * is old enough to need them.
+    * The snapshot must be taken by the writing thread, but can then be read
+    * from any thread (the value dictionary, if any, is safe to decode from there).
+    * Close it when done.
+    * Complexity O(1)
+    */
+   public Snapshot snapshot() {
+	   if (this.reclaimPending) {
+		   this.reclaimVersions();
+	   }
+	   synchronized (this.openSnapshots) {
+		   Snapshot snapshot = new Snapshot(this.epoch, this.root);
+		   this.openSnapshots.add(snapshot);
+		   this.latestPinned = this.epoch;
+		   this.epoch++;
+		   return snapshot;
+	   }
+   }
+   
+   /**
+    * public int versionCount()
+    *
+    * Returns the number of old node versions kept for open snapshots.
+    * Complexity O(number of versioned nodes)
+    */
+   public int versionCount() {
+	   int count = 0;
+	   for (WAVLNode node: this.versionedNodes) {
+		   for (Version v = node.history; v != null; v = v.next) {
+			   count++;
+		   }
+	   }
+	   return count;
+   }
+   
+   /**
+    * public MemoryStats memoryStats()
+    *
+    * Returns the node counters of the tree and its estimated shallow size.
+    * the deep fields are -1, see memoryStats(boolean).
+    * Complexity O(1)
+    */
+   public MemoryStats memoryStats() {
+	   return this.memoryStats(false);
+   }
+   
+   /**
+    * public MemoryStats memoryStats(boolean deep)
+    *
+    * Returns the heap accounting of the tree. with deep the whole tree is
+    * scanned for its height, the average node depth and the bytes of the
+    * infos, multiset buckets and snapshot versions.
+    * Complexity O(1), O(n + versions + total info length) with deep
+    */
+   public MemoryStats memoryStats(boolean deep) {
+	   int maxRank = this.root == null ? -1 : this.root.rank;
+	   long nodeBytes = this.dictionary != null ? MemoryStats.CODED_NODE_BYTES : MemoryStats.NODE_BYTES;
+	   long shallowBytes = MemoryStats.TREE_BYTES + MemoryStats.VIRTUAL_NODE_BYTES + this.nodeCount * nodeBytes;
+	   if (!deep) {
+		   return new MemoryStats(this.nodeCount, 1, this.tombstones, maxRank, shallowBytes, -1, -1, -1, -1, -1);
+	   }
+	   int height = -1;
+	   long depthSum = 0;
+	   long bucketBytes = 0;
+	   long valueBytes = 0;
+	   Map<String, Boolean> seen = new IdentityHashMap<String, Boolean>();
+	   ArrayDeque<WAVLNode> nodes = new ArrayDeque<WAVLNode>();
+	   ArrayDeque<Integer> depths = new ArrayDeque<Integer>();
+	   if (this.root != null && this.root.isReal) {
+		   nodes.push(this.root);
+		   depths.push(0);
+	   }
+	   while (!nodes.isEmpty()) {
+		   WAVLNode node = nodes.pop();
+		   int depth = depths.pop();
+		   height = Math.max(height, depth);
+		   depthSum += depth;
+		   if (this.dictionary == null) {
+			   valueBytes += MemoryStats.stringBytes(node.info(), seen);
+		   }
+		   if (node.bucket != null) {
+			   bucketBytes += MemoryStats.arrayBytes(node.bucket.length, MemoryStats.REFERENCE_BYTES);
+			   for (String info: node.bucket) {
+				   valueBytes += MemoryStats.stringBytes(info, seen);
+			   }
+		   }
+		   if (node.left.isReal) {
+			   nodes.push(node.left);
+			   depths.push(depth + 1);
+		   }
+		   if (node.right.isReal) {
+			   nodes.push(node.right);
+			   depths.push(depth + 1);
+		   }
+	   }
+	   if (this.dictionary != null) {
+		   valueBytes = this.dictionary.heapBytes() + this.dictionary.offHeapBytes();
+	   }
+	   long versionBytes = (long) this.versionCount() * MemoryStats.VERSION_BYTES;
+	   double averageDepth = this.nodeCount == 0 ? 0 : (double) depthSum / this.nodeCount;
+	   return new MemoryStats(this.nodeCount, 1, this.tombstones, maxRank, shallowBytes,
+			   height, averageDepth, valueBytes, versionBytes, shallowBytes + bucketBytes + valueBytes + versionBytes);
+   }
+   
+   /**
+    * private void reclaimVersions()
+    *
+    * drops the node versions that no open snapshot can read anymore.
+    * runs on the writing thread, after a snapshot was closed.
+    * Complexity O(number of versioned nodes)
+    */
+   private void reclaimVersions() {
+	   this.reclaimPending = false;
+	   long oldest = -1;
+	   synchronized (this.openSnapshots) {
+		   for (Snapshot snapshot: this.openSnapshots) {
+			   if (oldest == -1 || snapshot.epoch < oldest) {
+				   oldest = snapshot.epoch;
+			   }
+		   }
+	   }
+	   List<WAVLNode> stillVersioned = new ArrayList<WAVLNode>();
+	   for (WAVLNode node: this.versionedNodes) {
+		   node.trimHistory(oldest);
+		   if (node.history != null) {
+			   stillVersioned.add(node);
+		   }
+	   }
+	   this.versionedNodes = stillVersioned;
+   }
+   
+   /**
+    * public static class ShardedWAVLTree
+    *
+    * A key range partitioned index of WAVL trees.
+    * shard j holds the keys in [lowerBound(j), lowerBound(j+1)), each shard has its
+    * own read/write lock so operations on different shards do not contend.
+    * the shard directory is an immutable array in a volatile field: an operation reads it
+    * without a lock, locks its shard and retries if the shard was retired meanwhile.
+    * restructure locks every shard for writing, retires the shards it replaces and
+    * publishes a new directory, so no lock is shared by all operations.
+    * once the largest shard holds SKEW times the mean of the others (and at least the
+    * minimal split size) it is split at its median and the adjacent pair of shards with
+    * the smallest total is joined, so the number of shards stays the same.
+    */
+   public static class ShardedWAVLTree {
+	   private static final int SKEW = 2;
+	   private static final int MIN_SPLIT_SIZE = 1024;
+	   
+	   /* held while restructuring, a thread that finds it held leaves the restructure to its owner */
+	   private final ReentrantLock restructureLock;
+	   private final int minSplitSize;
+	   /* the shard directory by lowerBound, never changed in place */
+	   private volatile Shard[] shards;
+	   private volatile int splitSize;
+	   
+	   private static class Shard {
+		   private final int lowerBound;
+		   private final WAVLTree tree;
+		   private final ReentrantReadWriteLock lock;
+		   /* replaced by restructure, set under the write lock. a retired shard is never used again */
+		   private boolean retired;
+		   
+		   private Shard(int lowerBound, WAVLTree tree) {
+			   this.lowerBound = lowerBound;
+			   this.tree = tree;
+			   this.lock = new ReentrantReadWriteLock();
+			   this.retired = false;
+		   }
+	   }
+	   
+	   /**
+	    * public ShardedWAVLTree(int[] splitPoints)
+	    *
+	    * creates splitPoints.length + 1 empty shards.
+	    * splitPoints must be sorted in increasing order.
+	    */
+	   public ShardedWAVLTree(int[] splitPoints) {
+		   this(splitPoints, MIN_SPLIT_SIZE);
+	   }
+	   
+	   /* minSplitSize is the smallest shard that is split, small ones make the fuzzer restructure often */
+	   ShardedWAVLTree(int[] splitPoints, int minSplitSize) {
+		   this.restructureLock = new ReentrantLock();
+		   this.minSplitSize = minSplitSize;
+		   Shard[] shards = new Shard[splitPoints.length + 1];
+		   shards[0] = new Shard(Integer.MIN_VALUE, new WAVLTree());
+		   for (int j = 0; j < splitPoints.length; j++) {
+			   shards[j + 1] = new Shard(splitPoints[j], new WAVLTree());
+		   }
+		   this.shards = shards;
+		   this.splitSize = minSplitSize;
+	   }
+	   
+	   /**
+	    * public ShardedWAVLTree(int shardCount)
+	    *
+	    * creates shardCount empty shards splitting the int range evenly.
+	    * shardCount must be at least 1.
+	    */
+	   public ShardedWAVLTree(int shardCount) {
+		   this(evenSplitPoints(shardCount));
+	   }
+	   
+	   private static int[] evenSplitPoints(int shardCount) {
+		   if (shardCount < 1) {
+			   throw new IllegalArgumentException("shard count " + shardCount + " is not positive");
+		   }
+		   int[] points = new int[shardCount - 1];
+		   long width = (1L << 32) / shardCount;
+		   for (int j = 0; j < points.length; j++) {
+			   points[j] = (int) (Integer.MIN_VALUE + width * (j + 1));
+		   }
+		   return points;
+	   }
+	   
+	   /* index of the shard of the directory shards that holds key k */
+	   private static int shardIndex(Shard[] shards, int k) {
+		   int lo = 0;
+		   int hi = shards.length - 1;
+		   while (lo < hi) {
+			   int mid = (lo + hi + 1) >>> 1;
+			   if (shards[mid].lowerBound <= k) {
+				   lo = mid;
+			   }
+			   else {
+				   hi = mid - 1;
+			   }
+		   }
+		   return lo;
+	   }
+	   
+	   /* the current shard of k, locked for writing or reading. retries if it was retired meanwhile */
+	   private Shard lockShard(int k, boolean write) {
+		   while (true) {
+			   Shard[] shards = this.shards;
+			   Shard shard = shards[shardIndex(shards, k)];
+			   Lock lock = write ? shard.lock.writeLock() : shard.lock.readLock();
+			   lock.lock();
+			   if (!shard.retired) {
+				   return shard;
+			   }
+			   lock.unlock();
+		   }
+	   }
+	   
+	   /* the current shards overlapping [lo, hi], locked for reading in key order. retries if one was retired meanwhile */
+	   private Shard[] lockForReading(int lo, int hi) {
+		   while (true) {
+			   Shard[] shards = this.shards;
+			   Shard[] locked = Arrays.copyOfRange(shards, shardIndex(shards, lo), shardIndex(shards, hi) + 1);
+			   boolean retired = false;
+			   for (Shard shard: locked) {
+				   shard.lock.readLock().lock();
+				   retired |= shard.retired;
+			   }
+			   if (!retired) {
+				   return locked;
+			   }
+			   unlockForReading(locked);
+		   }
+	   }
+	   
+	   private static void unlockForReading(Shard[] locked) {
+		   for (Shard shard: locked) {
+			   shard.lock.readLock().unlock();
+		   }
+	   }
+	   
+	   public int shardCount() {
+		   return this.shards.length;
+	   }
+	   
+	   /**
+	    * public String search(int k)
+	    *
+	    * as WAVLTree.search, locks only the shard of k for reading.
+	    * Complexity O(log shardCount + log n)
+	    */
+	   public String search(int k) {
+		   Shard shard = this.lockShard(k, false);
+		   try {
+			   return shard.tree.search(k);
+		   }
+		   finally {
+			   shard.lock.readLock().unlock();
+		   }
+	   }
+	   
+	   /**
+	    * public int insert(int k, String i)
+	    *
+	    * as WAVLTree.insert, locks only the shard of k for writing.
+	    * Complexity O(log n), amortized O(n / shardCount) for restructuring
+	    */
+	   public int insert(int k, String i) {
+		   int res;
+		   boolean skewed;
+		   Shard shard = this.lockShard(k, true);
+		   try {
+			   res = shard.tree.insert(k, i);
+			   skewed = shard.tree.size() > this.splitSize;
+		   }
+		   finally {
+			   shard.lock.writeLock().unlock();
+		   }
+		   if (skewed) {
+			   this.restructure();
+		   }
+		   return res;
+	   }
+	   
+	   /**
+	    * public int delete(int k)
+	    *
+	    * as WAVLTree.delete, locks only the shard of k for writing.
+	    * Complexity O(log n)
+	    */
+	   public int delete(int k) {
+		   Shard shard = this.lockShard(k, true);
+		   try {
+			   return shard.tree.delete(k);
+		   }
+		   finally {
+			   shard.lock.writeLock().unlock();
+		   }
+	   }
+	   
+	   /**
+	    * public int size()
+	    *
+	    * Returns the number of items in all shards.
+	    * Complexity O(shardCount)
+	    */
+	   public int size() {
+		   Shard[] shards = this.lockForReading(Integer.MIN_VALUE, Integer.MAX_VALUE);
+		   try {
+			   int size = 0;
+			   for (Shard shard: shards) {
+				   size += shard.tree.size();
+			   }
+			   return size;
+		   }
+		   finally {
+			   unlockForReading(shards);
+		   }
+	   }
+	   
+	   public boolean empty() {
+		   return this.size() == 0;
+	   }
+	   
+	   /**
+	    * public String select(int i)
+	    *
+	    * as WAVLTree.select. the shard of the i'th key is found by the shard sizes.
+	    * Complexity O(shardCount + log n)
+	    */
+	   public String select(int i) {
+		   Shard[] shards = this.lockForReading(Integer.MIN_VALUE, Integer.MAX_VALUE);
+		   try {
+			   for (Shard shard: shards) {
+				   int size = shard.tree.size();
+				   if (i >= 1 && i <= size) {
+					   return shard.tree.select(i);
+				   }
+				   i -= size;
+			   }
+			   return "-1";
+		   }
+		   finally {
+			   unlockForReading(shards);
+		   }
+	   }
+	   
+	   /**
+	    * public int[] keysToArray()
+	    *
+	    * Returns a sorted array of all keys. the shards are copied in parallel.
+	    * Complexity O(n)
+	    */
+	   public int[] keysToArray() {
+		   Shard[] shards = this.lockForReading(Integer.MIN_VALUE, Integer.MAX_VALUE);
+		   try {
+			   int[] offsets = offsets(shards);
+			   int[] arr = new int[offsets[offsets.length - 1]];
+			   IntStream.range(0, shards.length).parallel().forEach(j -> {
+				   int[] part = shards[j].tree.keysToArray();
+				   System.arraycopy(part, 0, arr, offsets[j], part.length);
+			   });
+			   return arr;
+		   }
+		   finally {
+			   unlockForReading(shards);
+		   }
+	   }
+	   
+	   /**
+	    * public String[] infoToArray()
+	    *
+	    * Returns the infos of all keys sorted by key. the shards are copied in parallel.
+	    * Complexity O(n)
+	    */
+	   public String[] infoToArray() {
+		   Shard[] shards = this.lockForReading(Integer.MIN_VALUE, Integer.MAX_VALUE);
+		   try {
+			   int[] offsets = offsets(shards);
+			   String[] arr = new String[offsets[offsets.length - 1]];
+			   IntStream.range(0, shards.length).parallel().forEach(j -> {
+				   String[] part = shards[j].tree.infoToArray();
+				   System.arraycopy(part, 0, arr, offsets[j], part.length);
+			   });
+			   return arr;
+		   }
+		   finally {
+			   unlockForReading(shards);
+		   }
+	   }
+	   
+	   /**
+	    * public int[] keysInRange(int lo, int hi)
+	    *
+	    * Returns a sorted array of the keys in [lo, hi]. the shards overlapping
+	    * the range are scanned in parallel.
+	    * Complexity O(log n + number of keys in the range)
+	    */
+	   public int[] keysInRange(int lo, int hi) {
+		   if (lo > hi) {
+			   return new int[0];
+		   }
+		   Shard[] shards = this.lockForReading(lo, hi);
+		   try {
+			   int[][] parts = new int[shards.length][];
+			   IntStream.range(0, shards.length).parallel().forEach(j -> {
+				   parts[j] = shards[j].tree.keysInRange(lo, hi);
+			   });
+			   int length = 0;
+			   for (int[] part: parts) {
+				   length += part.length;
+			   }
+			   int[] arr = new int[length];
+			   int pos = 0;
+			   for (int[] part: parts) {
+				   System.arraycopy(part, 0, arr, pos, part.length);
+				   pos += part.length;
+			   }
+			   return arr;
+		   }
+		   finally {
+			   unlockForReading(shards);
+		   }
+	   }
+	   
+	   /* offsets[j] = number of keys in the shards before j, last entry is the total */
+	   private static int[] offsets(Shard[] shards) {
+		   int[] offsets = new int[shards.length + 1];
+		   for (int j = 0; j < shards.length; j++) {
+			   offsets[j + 1] = offsets[j] + shards[j].tree.size();
+		   }
+		   return offsets;
+	   }
+	   
+	   /**
+	    * private void restructure()
+	    *
+	    * splits the largest shard at its median if it holds more than SKEW times the
+	    * mean of the other shards, and joins the adjacent pair with the smallest total
+	    * in exchange. every shard is locked for writing meanwhile, in key order like the
+	    * readers of several shards. a single shard is never split.
+	    * Complexity O(n / shardCount)
+	    */
+	   private void restructure() {
+		   if (!this.restructureLock.tryLock()) {
+			   return;
+		   }
+		   try {
+			   Shard[] shards = this.shards;
+			   for (Shard shard: shards) {
+				   shard.lock.writeLock().lock();
+			   }
+			   try {
+				   this.restructure(shards);
+			   }
+			   finally {
+				   for (Shard shard: shards) {
+					   shard.lock.writeLock().unlock();
+				   }
+			   }
+		   }
+		   finally {
+			   this.restructureLock.unlock();
+		   }
+	   }
+	   
+	   /* precondition: every shard of the directory shards locked for writing */
+	   private void restructure(Shard[] shards) {
+		   int total = 0;
+		   int largest = 0;
+		   for (int j = 0; j < shards.length; j++) {
+			   total += shards[j].tree.size();
+			   if (shards[j].tree.size() > shards[largest].tree.size()) {
+				   largest = j;
+			   }
+		   }
+		   if (shards.length < 2) {
+			   this.splitSize = Integer.MAX_VALUE;
+			   return;
+		   }
+		   int largestSize = shards[largest].tree.size();
+		   int threshold = Math.max(this.minSplitSize, SKEW * ((total - largestSize) / (shards.length - 1)));
+		   this.splitSize = threshold;
+		   if (largestSize <= threshold) {
+			   return;
+		   }
+		   
+		   List<Shard> next = new ArrayList<Shard>();
+		   for (int j = 0; j < shards.length; j++) {
+			   if (j != largest) {
+				   next.add(shards[j]);
+				   continue;
+			   }
+			   int[] keys = shards[j].tree.keysToArray();
+			   String[] infos = shards[j].tree.infoToArray();
+			   int mid = keys.length / 2;
+			   next.add(new Shard(shards[j].lowerBound, fromSorted(Arrays.copyOfRange(keys, 0, mid), Arrays.copyOfRange(infos, 0, mid))));
+			   next.add(new Shard(keys[mid], fromSorted(Arrays.copyOfRange(keys, mid, keys.length), Arrays.copyOfRange(infos, mid, infos.length))));
+		   }
+		   
+		   // join the adjacent pair with the smallest total, never the two halves just split
+		   int join = -1;
+		   for (int j = 0; j + 1 < next.size(); j++) {
+			   if (j == largest) {
+				   continue;
+			   }
+			   if (join == -1 || next.get(j).tree.size() + next.get(j + 1).tree.size() < next.get(join).tree.size() + next.get(join + 1).tree.size()) {
+				   join = j;
+			   }
+		   }
+		   Shard left = next.get(join);
+		   Shard right = next.remove(join + 1);
+		   int[] keys = concat(left.tree.keysToArray(), right.tree.keysToArray());
+		   String[] infos = new String[keys.length];
+		   System.arraycopy(left.tree.infoToArray(), 0, infos, 0, left.tree.size());
+		   System.arraycopy(right.tree.infoToArray(), 0, infos, left.tree.size(), right.tree.size());
+		   next.set(join, new Shard(left.lowerBound, fromSorted(keys, infos)));
+		   
+		   shards[largest].retired = true;
+		   left.retired = true;
+		   right.retired = true;
+		   this.shards = next.toArray(new Shard[next.size()]);
+	   }
+	   
+	   /**
+	    * String findViolation()
+	    *
+	    * Returns a description of the first broken invariant of a shard tree, or of
+	    * a key outside the range of its shard, or null if the index is valid.
+	    * Complexity O(n)
+	    */
+	   String findViolation() {
+		   Shard[] shards = this.lockForReading(Integer.MIN_VALUE, Integer.MAX_VALUE);
+		   try {
+			   for (int j = 0; j < shards.length; j++) {
+				   WAVLTree tree = shards[j].tree;
+				   String violation = tree.findViolation();
+				   if (violation != null) {
+					   return "shard " + j + ": " + violation;
+				   }
+				   if (tree.empty()) {
+					   continue;
+				   }
+				   int[] keys = tree.keysToArray();
+				   if (keys[0] < shards[j].lowerBound
+						   || (j + 1 < shards.length && keys[keys.length - 1] >= shards[j + 1].lowerBound)) {
+					   return "shard " + j + ": keys outside [" + shards[j].lowerBound + ", next bound)";
+				   }
+			   }
+			   return null;
+		   }
+		   finally {
+			   unlockForReading(shards);
+		   }
+	   }
+	   
+	   /* the number of items of every shard, in key order */
+	   int[] shardSizes() {
+		   Shard[] shards = this.lockForReading(Integer.MIN_VALUE, Integer.MAX_VALUE);
+		   try {
+			   int[] sizes = new int[shards.length];
+			   for (int j = 0; j < shards.length; j++) {
+				   sizes[j] = shards[j].tree.size();
+			   }
+			   return sizes;
+		   }
+		   finally {
+			   unlockForReading(shards);
+		   }
+	   }
+	   
+	   private static int[] concat(int[] a, int[] b) {
+		   int[] arr = Arrays.copyOf(a, a.length + b.length);
+		   System.arraycopy(b, 0, arr, a.length, b.length);
+		   return arr;
+	   }
+   }
+   
+   /**
+    * public static class CombiningWAVLTree
+    *
+    * A flat combining front end for one WAVL tree shared by many threads.
+    * search, insert and delete queue the operation and return a future at once.
+    * a caller that gets the combiner lock drains one batch of the queue, sorts it by
+    * key (stably, so operations on one key keep their order) and applies it in key
+    * order, every operation starting from the node the previous one stopped at
+    * (see fingerSearch). repeated searches of a key share one descent.
+    * the futures of the batch are completed after the lock is released.
+    * a caller applies at most one batch, however long the load lasts. whatever is
+    * queued after it is left to a hand-off task on the common pool, which combines
+    * until the queue is empty - so a caller that does not get the lock returns at once,
+    * and the lock is never waited for by a caller (virtual threads are not pinned).
+    * the tree must not be used directly while it is wrapped.
+    */
+   public static class CombiningWAVLTree {
+	   private static final int SEARCH = 0;
+	   private static final int INSERT = 1;
+	   private static final int DELETE = 2;
+	   private static final int MAX_BATCH = 4096;
+	   private static final Comparator<Request> BY_KEY = Comparator.comparingInt(request -> request.key);
+	   
+	   private final WAVLTree tree;
+	   private final ConcurrentLinkedQueue<Request> pending;
+	   private final ReentrantLock combinerLock;
+	   /* true while a hand-off task is scheduled or running */
+	   private final AtomicBoolean handOff;
+	   
+	   private static final class Request {
+		   private final int op;
+		   private final int key;
+		   private final String info;
+		   private final CompletableFuture<Object> result;
+		   private Object value;
+		   /* the exception of the operation, or the error that stopped its batch */
+		   private Throwable failure;
+		   
+		   private Request(int op, int key, String info) {
+			   this.op = op;
+			   this.key = key;
+			   this.info = info;
+			   this.result = new CompletableFuture<Object>();
+		   }
+		   
+		   private void complete() {
+			   if (this.failure != null) {
+				   this.result.completeExceptionally(this.failure);
+			   }
+			   else {
+				   this.result.complete(this.value);
+			   }
+		   }
+	   }
+	   
+	   public CombiningWAVLTree() {
+		   this(new WAVLTree());
+	   }
+	   
+	   public CombiningWAVLTree(WAVLTree tree) {
+		   this.tree = tree;
+		   this.pending = new ConcurrentLinkedQueue<Request>();
+		   this.combinerLock = new ReentrantLock();
+		   this.handOff = new AtomicBoolean(false);
+	   }
+	   
+	   /**
+	    * public CompletableFuture<String> search(int k)
+	    *
+	    * as WAVLTree.search, the future completes once a combiner applied it.
+	    */
+	   public CompletableFuture<String> search(int k) {
+		   return this.submit(SEARCH, k, null);
+	   }
+	   
+	   /**
+	    * public CompletableFuture<Integer> insert(int k, String i)
+	    *
+	    * as WAVLTree.insert, the future completes once a combiner applied it.
+	    */
+	   public CompletableFuture<Integer> insert(int k, String i) {
+		   return this.submit(INSERT, k, i);
+	   }
+	   
+	   /**
+	    * public CompletableFuture<Integer> delete(int k)
+	    *
+	    * as WAVLTree.delete, the future completes once a combiner applied it.
+	    */
+	   public CompletableFuture<Integer> delete(int k) {
+		   return this.submit(DELETE, k, null);
+	   }
+	   
+	   /**
+	    * private <T> CompletableFuture<T> submit(int op, int k, String i)
+	    *
+	    * queues the request and applies one batch if the combiner lock is free.
+	    * otherwise the lock holder sees the request once it releases the lock:
+	    * a caller hands the rest of the queue off, the hand-off task drains it.
+	    */
+	   @SuppressWarnings("unchecked")
+	   private <T> CompletableFuture<T> submit(int op, int k, String i) {
+		   Request request = new Request(op, k, i);
+		   this.pending.add(request);
+		   if (this.combinerLock.tryLock()) {
+			   try {
+				   this.combineBatch();
+			   }
+			   finally {
+				   this.handOff();
+			   }
+		   }
+		   return (CompletableFuture<T>) (CompletableFuture<?>) request.result;
+	   }
+	   
+	   /* schedules the hand-off task if requests are queued and it is not scheduled yet */
+	   private void handOff() {
+		   if (!this.pending.isEmpty() && this.handOff.compareAndSet(false, true)) {
+			   CompletableFuture.runAsync(this::combineQueued);
+		   }
+	   }
+	   
+	   /* the hand-off task. it waits for the lock, it runs on a pool thread */
+	   private void combineQueued() {
+		   try {
+			   while (!this.pending.isEmpty()) {
+				   this.combinerLock.lock();
+				   this.combineBatch();
+			   }
+		   }
+		   finally {
+			   this.handOff.set(false);
+		   }
+		   /* a request queued after the last check, whose caller saw the task still scheduled*/
+		   this.handOff();
+	   }
+	   
+	   /**
+	    * private void combineBatch()
+	    *
+	    * drains and applies one batch, releases the combiner lock and completes
+	    * every drained future, also if apply throws an error.
+	    * precondition: combiner lock held
+	    */
+	   private void combineBatch() {
+		   Request[] batch = null;
+		   try {
+			   batch = this.drain();
+			   this.apply(batch);
+		   }
+		   finally {
+			   this.combinerLock.unlock();
+			   if (batch != null) {
+				   for (Request request: batch) {
+					   request.complete();
+				   }
+			   }
+		   }
+	   }
+	   
+	   /* takes at most MAX_BATCH queued requests, sorted by key. precondition: combiner lock held */
+	   private Request[] drain() {
+		   List<Request> batch = new ArrayList<Request>();
+		   Request request;
+		   while (batch.size() < MAX_BATCH && (request = this.pending.poll()) != null) {
+			   batch.add(request);
+		   }
+		   Request[] arr = batch.toArray(new Request[batch.size()]);
+		   Arrays.sort(arr, BY_KEY);
+		   return arr;
+	   }
+	   
+	   /**
+	    * private void apply(Request[] batch)
+	    *
+	    * applies a batch sorted by key. searches and writes alike start from the
+	    * finger, the node the previous operation stopped at. after a write the finger
+	    * is a node that keeps a key <= the written one, as fingerSearch requires
+	    * with the tree changed: the insertion point if its key is smaller, a tombstone
+	    * or a node that lost an occurrence, or the parent of a removed node.
+	    * an error fails the requests it stopped before rethrowing it.
+	    * precondition: combiner lock held
+	    * Complexity O(b log(n/b)) for b operations, plus the rebalancing of the writes
+	    */
+	   private void apply(Request[] batch) {
+		   WAVLTree tree = this.tree;
+		   WAVLNode finger = null;
+		   boolean cached = false;
+		   int cachedKey = 0;
+		   String cachedInfo = null;
+		   int j = 0;
+		   try {
+			   for (; j < batch.length; j++) {
+				   Request request = batch[j];
+				   try {
+					   if (request.op == SEARCH) {
+						   if (!cached || cachedKey != request.key) {
+							   if (tree.isAdaptive()) {
+								   /* adaptive search counts the hit*/
+								   cachedInfo = tree.search(request.key);
+							   }
+							   else {
+								   finger = tree.fingerSearch(finger, request.key);
+								   boolean found = finger != null && finger.getKey() == request.key && !finger.isDeleted();
+								   cachedInfo = found ? finger.getValue() : null;
+							   }
+							   cachedKey = request.key;
+							   cached = true;
+						   }
+						   request.value = cachedInfo;
+						   continue;
+					   }
+					   cached = false;
+					   WAVLNode at = tree.fingerSearch(finger, request.key);
+					   WAVLNode keep = at;
+					   if (request.op == INSERT) {
+						   request.value = tree.insertAt(at, request.key, request.info);
+					   }
+					   else {
+						   int tombstones = tree.tombstones;
+						   boolean removes = at != null && at.getKey() == request.key && !tree.lazyDelete && at.getCount() == 1;
+						   keep = removes ? at.getParent() : at;
+						   request.value = tree.deleteAt(at, request.key);
+						   if (tree.lazyDelete && tree.tombstones <= tombstones) {
+							   keep = null; // rebuilt, the tombstones are gone
+						   }
+					   }
+					   finger = keep != null && keep.getKey() <= request.key ? keep : null;
+				   }
+				   catch (RuntimeException e) {
+					   request.failure = e;
+					   finger = null;
+					   cached = false;
+				   }
+			   }
+		   }
+		   catch (Error e) {
+			   for (; j < batch.length; j++) {
+				   batch[j].failure = e;
+			   }
+			   throw e;
+		   }
+	   }
+   }
+   
+   /**
+    * public static class TieredWAVLTree
+    *
+    * A WAVL tree for keys that stop changing after a while. new keys go to a hot
+    * WAVL tree; once it holds freezeSize keys it is frozen into an immutable
+    * FrozenSegment (sorted arrays, a few bytes per key instead of a node and
+    * two virtual children) and a new hot tree is started.
+    * every key is in at most one tier: inserting a frozen key thaws it (it is
+    * marked dead in its segment and inserted into the hot tree), deleting one
+    * only marks it dead.
+    * segments are merged by a background task, smallest first, so there are
+    * O(log n) of them. search, select and keysInRange span both tiers.
+    * reads take a shared lock and writes an exclusive one.
+    * the hot tree is a plain WAVL tree (no multiset, lazy or adaptive mode).
+    */
+   public static class TieredWAVLTree {
+	   private static final int DEFAULT_FREEZE_SIZE = 1 << 16;
+	   private static final int MAX_SEGMENTS = 16;
+	   
+	   private final int freezeSize;
+	   private final ReentrantReadWriteLock lock;
+	   private final AtomicBoolean merging;
+	   private WAVLTree hot;
+	   private FrozenSegment[] segments;
+	   private volatile CompletableFuture<Void> mergeTask;
+	   
+	   public TieredWAVLTree() {
+		   this(DEFAULT_FREEZE_SIZE);
+	   }
+	   
+	   public TieredWAVLTree(int freezeSize) {
+		   this.freezeSize = freezeSize;
+		   this.lock = new ReentrantReadWriteLock();
+		   this.merging = new AtomicBoolean(false);
+		   this.hot = new WAVLTree();
+		   this.segments = new FrozenSegment[0];
+		   this.mergeTask = CompletableFuture.completedFuture(null);
+	   }
+	   
+	   /**
+	    * public String search(int k)
+	    *
+	    * as WAVLTree.search, looks in the hot tree first and then in the segments.
+	    * Complexity O(log n * segmentCount)
+	    */
+	   public String search(int k) {
+		   this.lock.readLock().lock();
+		   try {
+			   String info = this.hot.search(k);
+			   if (info != null) {
+				   return info;
+			   }
+			   for (FrozenSegment segment: this.segments) {
+				   int pos = segment.indexOf(k);
+				   if (pos >= 0) {
+					   return segment.infoAt(pos);
+				   }
+			   }
+			   return null;
+		   }
+		   finally {
+			   this.lock.readLock().unlock();
+		   }
+	   }
+	   
+	   /**
+	    * public int insert(int k, String i)
+	    *
+	    * as WAVLTree.insert (an existing key gets the new info and -1 is returned).
+	    * a frozen key is thawed into the hot tree. freezes the hot tree once it is full.
+	    * Complexity O(log n * segmentCount), amortized O(1) more for freezing
+	    */
+	   public int insert(int k, String i) {
+		   boolean frozen = false;
+		   int res;
+		   this.lock.writeLock().lock();
+		   try {
+			   boolean thawed = false;
+			   for (FrozenSegment segment: this.segments) {
+				   int pos = segment.indexOf(k);
+				   if (pos >= 0) {
+					   segment.kill(pos);
+					   thawed = true;
+					   break;
+				   }
+			   }
+			   res = this.hot.insert(k, i);
+			   if (thawed) {
+				   res = -1;
+			   }
+			   if (this.hot.size() >= this.freezeSize) {
+				   this.freezeHot();
+				   frozen = true;
+			   }
+		   }
+		   finally {
+			   this.lock.writeLock().unlock();
+		   }
+		   if (frozen) {
+			   this.scheduleMerge();
+		   }
+		   return res;
+	   }
+	   
+	   /**
+	    * public int delete(int k)
+	    *
+	    * as WAVLTree.delete. a frozen key is only marked dead (0 rebalancing operations).
+	    * Complexity O(log n * segmentCount)
+	    */
+	   public int delete(int k) {
+		   this.lock.writeLock().lock();
+		   try {
+			   int res = this.hot.delete(k);
+			   if (res != -1) {
+				   return res;
+			   }
+			   for (FrozenSegment segment: this.segments) {
+				   int pos = segment.indexOf(k);
+				   if (pos >= 0) {
+					   segment.kill(pos);
+					   return 0;
+				   }
+			   }
+			   return -1;
+		   }
+		   finally {
+			   this.lock.writeLock().unlock();
+		   }
+	   }
+	   
+	   /**
+	    * public void freeze()
+	    *
+	    * freezes the hot tree now, whatever its size.
+	    * Complexity O(size of the hot tree)
+	    */
+	   public void freeze() {
+		   this.lock.writeLock().lock();
+		   try {
+			   this.freezeHot();
+		   }
+		   finally {
+			   this.lock.writeLock().unlock();
+		   }
+		   this.scheduleMerge();
+	   }
+	   
+	   /* precondition: write lock held */
+	   private void freezeHot() {
+		   if (this.hot.empty()) {
+			   return;
+		   }
+		   FrozenSegment segment = new FrozenSegment(this.hot.keysToArray(), this.hot.infoToArray());
+		   this.segments = Arrays.copyOf(this.segments, this.segments.length + 1);
+		   this.segments[this.segments.length - 1] = segment;
+		   this.hot = new WAVLTree();
+	   }
+	   
+	   public int size() {
+		   this.lock.readLock().lock();
+		   try {
+			   int size = this.hot.size();
+			   for (FrozenSegment segment: this.segments) {
+				   size += segment.size();
+			   }
+			   return size;
+		   }
+		   finally {
+			   this.lock.readLock().unlock();
+		   }
+	   }
+	   
+	   public boolean empty() {
+		   return this.size() == 0;
+	   }
+	   
+	   public int segmentCount() {
+		   this.lock.readLock().lock();
+		   try {
+			   return this.segments.length;
+		   }
+		   finally {
+			   this.lock.readLock().unlock();
+		   }
+	   }
+	   
+	   /**
+	    * public int rank(int k)
+	    *
+	    * Returns the number of keys smaller than k in both tiers.
+	    * Complexity O(log n * segmentCount)
+	    */
+	   public int rank(int k) {
+		   this.lock.readLock().lock();
+		   try {
+			   return this.rankUnlocked(k);
+		   }
+		   finally {
+			   this.lock.readLock().unlock();
+		   }
+	   }
+	   
+	   private int rankUnlocked(int k) {
+		   int rank = this.hot.rank(k);
+		   for (FrozenSegment segment: this.segments) {
+			   rank += segment.rank(k);
+		   }
+		   return rank;
+	   }
+	   
+	   /**
+	    * public String select(int i)
+	    *
+	    * as WAVLTree.select over both tiers. the tiers interleave, so the i'th key
+	    * is found by a binary search over the key range: it is the largest key
+	    * with fewer than i keys below it.
+	    * Complexity O(32 * log n * segmentCount)
+	    */
+	   public String select(int i) {
+		   this.lock.readLock().lock();
+		   try {
+			   int size = this.hot.size();
+			   for (FrozenSegment segment: this.segments) {
+				   size += segment.size();
+			   }
+			   if (i < 1 || i > size) {
+				   return "-1";
+			   }
+			   long lo = Integer.MIN_VALUE;
+			   long hi = Integer.MAX_VALUE;
+			   while (lo < hi) {
+				   long mid = (lo + hi + 1) >> 1;
+				   if (this.rankUnlocked((int) mid) < i) {
+					   lo = mid;
+				   }
+				   else {
+					   hi = mid - 1;
+				   }
+			   }
+			   int k = (int) lo;
+			   String info = this.hot.search(k);
+			   if (info != null) {
+				   return info;
+			   }
+			   for (FrozenSegment segment: this.segments) {
+				   int pos = segment.indexOf(k);
+				   if (pos >= 0) {
+					   return segment.infoAt(pos);
+				   }
+			   }
+			   return null; // the key may have a null info
+		   }
+		   finally {
+			   this.lock.readLock().unlock();
+		   }
+	   }
+	   
+	   /**
+	    * public int[] keysInRange(int lo, int hi)
+	    *
+	    * Returns a sorted array of the keys in [lo, hi] in both tiers.
+	    * the tiers hold disjoint keys, so the parts are only concatenated and sorted.
+	    * Complexity O(log n * segmentCount + m log m) for m keys in the range
+	    */
+	   public int[] keysInRange(int lo, int hi) {
+		   if (lo > hi) {
+			   return new int[0];
+		   }
+		   this.lock.readLock().lock();
+		   try {
+			   int[] arr = this.hot.keysInRange(lo, hi);
+			   for (FrozenSegment segment: this.segments) {
+				   arr = ShardedWAVLTree.concat(arr, segment.keysInRange(lo, hi));
+			   }
+			   Arrays.sort(arr);
+			   return arr;
+		   }
+		   finally {
+			   this.lock.readLock().unlock();
+		   }
+	   }
+	   
+	   /**
+	    * public void awaitMerges()
+	    *
+	    * waits until the background merging is done.
+	    */
+	   public void awaitMerges() {
+		   while (this.merging.get()) {
+			   this.mergeTask.join();
+		   }
+	   }
+	   
+	   /* starts the background merge task unless it is running */
+	   private void scheduleMerge() {
+		   if (this.merging.compareAndSet(false, true)) {
+			   this.mergeTask = CompletableFuture.runAsync(this::mergeSegments);
+		   }
+	   }
+	   
+	   /**
+	    * private void mergeSegments()
+	    *
+	    * the background merge task. repeatedly merges the two smallest segments
+	    * while the larger of them is at most twice the smaller one, or there are
+	    * more than MAX_SEGMENTS. the merge itself runs without the lock, on a copy
+	    * of the dead marks taken under the read lock. keys that died meanwhile
+	    * are marked dead in the merged segment when it is installed.
+	    */
+	   private void mergeSegments() {
+		   try {
+			   while (true) {
+				   FrozenSegment first;
+				   FrozenSegment second;
+				   long[] firstDead;
+				   long[] secondDead;
+				   this.lock.readLock().lock();
+				   try {
+					   int[] pair = this.mergeCandidates();
+					   if (pair == null) {
+						   break;
+					   }
+					   first = this.segments[pair[0]];
+					   second = this.segments[pair[1]];
+					   firstDead = first.dead.clone();
+					   secondDead = second.dead.clone();
+				   }
+				   finally {
+					   this.lock.readLock().unlock();
+				   }
+				   FrozenSegment merged = FrozenSegment.merge(first, firstDead, second, secondDead);
+				   this.lock.writeLock().lock();
+				   try {
+					   first.killSince(firstDead, merged);
+					   second.killSince(secondDead, merged);
+					   FrozenSegment[] arr = new FrozenSegment[this.segments.length - 1];
+					   int j = 0;
+					   for (FrozenSegment segment: this.segments) {
+						   if (segment != first && segment != second) {
+							   arr[j++] = segment;
+						   }
+					   }
+					   arr[j] = merged;
+					   this.segments = arr;
+				   }
+				   finally {
+					   this.lock.writeLock().unlock();
+				   }
+			   }
+		   }
+		   finally {
+			   this.merging.set(false);
+		   }
+		   /* a freeze between the last check and the reset above could not start a task*/
+		   this.lock.readLock().lock();
+		   boolean more;
+		   try {
+			   more = this.mergeCandidates() != null;
+		   }
+		   finally {
+			   this.lock.readLock().unlock();
+		   }
+		   if (more) {
+			   this.scheduleMerge();
+		   }
+	   }
+	   
+	   /* indices of the two smallest segments if they should be merged, else null. precondition: lock held */
+	   private int[] mergeCandidates() {
+		   if (this.segments.length < 2) {
+			   return null;
+		   }
+		   int smallest = -1;
+		   int next = -1;
+		   for (int j = 0; j < this.segments.length; j++) {
+			   int size = this.segments[j].size();
+			   if (smallest == -1 || size < this.segments[smallest].size()) {
+				   next = smallest;
+				   smallest = j;
+			   }
+			   else if (next == -1 || size < this.segments[next].size()) {
+				   next = j;
+			   }
+		   }
+		   if (this.segments[next].size() <= 2 * this.segments[smallest].size() || this.segments.length > MAX_SEGMENTS) {
+			   return new int[] {smallest, next};
+		   }
+		   return null;
+	   }
+   }
+   
+   /**
+    * static final class FrozenSegment
+    *
+    * An immutable sorted run of keys with their infos, the cold tier of TieredWAVLTree.
+    * the keys are split into blocks of BLOCK keys (64 bytes, a cache line) and the
+    * first key of every block is copied to a separator array, the one level index
+    * of a B+ tree. a lookup binary searches the separators, which are small enough
+    * to stay in cache, and then scans one block. both steps are written without
+    * data dependent branches (the JIT turns the ternaries into conditional moves).
+    * deleted keys are only marked in a dead bitmap, with a Fenwick tree over its
+    * words so rank stays O(log n).
+    * the arrays never change, the dead marks change under the owner's write lock.
+    */
+   static final class FrozenSegment {
+	   private static final int BLOCK = 16;
+	   
+	   private final int[] keys;
+	   private final String[] infos;
+	   private final int[] separators;
+	   private final long[] dead;
+	   private final int[] deadTree;
+	   private int deadCount;
+	   
+	   /* keys sorted and distinct, infos parallel to them */
+	   FrozenSegment(int[] keys, String[] infos) {
+		   this.keys = keys;
+		   this.infos = infos;
+		   this.separators = new int[(keys.length + BLOCK - 1) / BLOCK];
+		   for (int j = 0; j < this.separators.length; j++) {
+			   this.separators[j] = keys[j * BLOCK];
+		   }
+		   this.dead = new long[(keys.length + 63) >>> 6];
+		   this.deadTree = new int[this.dead.length + 1];
+		   this.deadCount = 0;
+	   }
+	   
+	   int size() {
+		   return this.keys.length - this.deadCount;
+	   }
+	   
+	   String infoAt(int pos) {
+		   return this.infos[pos];
+	   }
+	   
+	   /**
+	    * int lowerBound(int k)
+	    *
+	    * Returns the position of the first key >= k (keys.length if there is none), dead or not.
+	    * Complexity O(log n)
+	    */
+	   int lowerBound(int k) {
+		   int base = 0;
+		   int n = this.separators.length;
+		   if (n == 0) {
+			   return 0;
+		   }
+		   /* the last block that starts below k, or block 0*/
+		   while (n > 1) {
+			   int half = n >>> 1;
+			   base = this.separators[base + half] < k ? base + half : base;
+			   n -= half;
+		   }
+		   int from = base * BLOCK;
+		   int to = Math.min(from + BLOCK, this.keys.length);
+		   int pos = from;
+		   for (int j = from; j < to; j++) {
+			   pos += this.keys[j] < k ? 1 : 0;
+		   }
+		   return pos;
+	   }
+	   
+	   /* position of live key k, or -1 */
+	   int indexOf(int k) {
+		   if (this.keys.length == 0 || k < this.keys[0] || k > this.keys[this.keys.length - 1]) {
+			   return -1;
+		   }
+		   int pos = this.lowerBound(k);
+		   if (pos < this.keys.length && this.keys[pos] == k && !this.isDead(pos)) {
+			   return pos;
+		   }
+		   return -1;
+	   }
+	   
+	   boolean isDead(int pos) {
+		   return (this.dead[pos >>> 6] & (1L << pos)) != 0;
+	   }
+	   
+	   /* marks the key at pos dead. precondition: it is live */
+	   void kill(int pos) {
+		   this.dead[pos >>> 6] |= 1L << pos;
+		   this.deadCount++;
+		   for (int j = (pos >>> 6) + 1; j < this.deadTree.length; j += j & -j) {
+			   this.deadTree[j]++;
+		   }
+	   }
+	   
+	   /* number of dead keys at positions < pos */
+	   private int deadBefore(int pos) {
+		   int word = pos >>> 6;
+		   int count = 0;
+		   for (int j = word; j > 0; j -= j & -j) {
+			   count += this.deadTree[j];
+		   }
+		   if ((pos & 63) != 0) {
+			   count += Long.bitCount(this.dead[word] & ((1L << pos) - 1));
+		   }
+		   return count;
+	   }
+	   
+	   /* number of live keys smaller than k */
+	   int rank(int k) {
+		   int pos = this.lowerBound(k);
+		   return pos - this.deadBefore(pos);
+	   }
+	   
+	   int[] keysInRange(int lo, int hi) {
+		   int from = this.lowerBound(lo);
+		   int to = hi == Integer.MAX_VALUE ? this.keys.length : this.lowerBound(hi + 1);
+		   int[] arr = new int[Math.max(0, to - from - (this.deadBefore(to) - this.deadBefore(from)))];
+		   int i = 0;
+		   for (int pos = from; pos < to; pos++) {
+			   if (!this.isDead(pos)) {
+				   arr[i++] = this.keys[pos];
+			   }
+		   }
+		   return arr;
+	   }
+	   
+	   /**
+	    * static FrozenSegment merge(FrozenSegment a, long[] aDead, FrozenSegment b, long[] bDead)
+	    *
+	    * Returns a segment of the keys of a and b that are live in the given dead bitmaps.
+	    * the keys of a and b are disjoint.
+	    * Complexity O(a.keys.length + b.keys.length)
+	    */
+	   static FrozenSegment merge(FrozenSegment a, long[] aDead, FrozenSegment b, long[] bDead) {
+		   int length = 0;
+		   for (long word: aDead) {
+			   length -= Long.bitCount(word);
+		   }
+		   for (long word: bDead) {
+			   length -= Long.bitCount(word);
+		   }
+		   length += a.keys.length + b.keys.length;
+		   int[] keys = new int[length];
+		   String[] infos = new String[length];
+		   int i = 0;
+		   int j = 0;
+		   int out = 0;
+		   while (i < a.keys.length || j < b.keys.length) {
+			   boolean fromA = j == b.keys.length || (i < a.keys.length && a.keys[i] < b.keys[j]);
+			   if (fromA) {
+				   if ((aDead[i >>> 6] & (1L << i)) == 0) {
+					   keys[out] = a.keys[i];
+					   infos[out++] = a.infos[i];
+				   }
+				   i++;
+			   }
+			   else {
+				   if ((bDead[j >>> 6] & (1L << j)) == 0) {
+					   keys[out] = b.keys[j];
+					   infos[out++] = b.infos[j];
+				   }
+				   j++;
+			   }
+		   }
+		   return new FrozenSegment(keys, infos);
+	   }
+	   
+	   /* marks dead in merged the keys that died here after the snapshot seenDead was taken */
+	   void killSince(long[] seenDead, FrozenSegment merged) {
+		   for (int w = 0; w < this.dead.length; w++) {
+			   long fresh = this.dead[w] & ~seenDead[w];
+			   while (fresh != 0) {
+				   int pos = (w << 6) + Long.numberOfTrailingZeros(fresh);
+				   fresh &= fresh - 1;
+				   merged.kill(merged.indexOf(this.keys[pos]));
+			   }
+		   }
+	   }
+   }
+   
+   /**
+    * public static class BoundedWAVLTree
+    *
+    * A WAVL tree used as an ordered cache: it keeps at most maxSize items and about
+    * maxBytes of nodes and infos, and an item expires ttl clock nanoseconds after it
+    * was last inserted (a per item ttl can be given instead).
+    * the oldest items are the ones with the smallest keys - the keys are expected to
+    * grow with time, like timestamps or sequence numbers - so expiry and the bounds
+    * mostly remove a prefix of the keys, which is cut off with one removeBelow split
+    * instead of a delete per item.
+    * the expiry time of every item with a ttl is kept in an open addressing map by key
+    * (about 24 bytes per item), so the nodes are the same as in any other tree.
+    * items that expire out of key order are found through an expiry index - a FIFO for
+    * the default ttl, whose expiry times grow in insertion order, and a heap for per item
+    * ttls - and deleted one by one. entries of items that were overwritten or already
+    * removed are stale (the map has another time for the key, or none) and skipped when they come due.
+    * expired items are removed at the start of every operation.
+    * the tree is a plain WAVL tree (no multiset, lazy or adaptive mode). not thread safe.
+    */
+   public static class BoundedWAVLTree {
+	   public static final long NO_TTL = Long.MAX_VALUE;
+	   
+	   private final WAVLTree tree;
+	   private final int maxSize;
+	   private final long maxBytes;
+	   private final long ttl;
+	   private LongSupplier clock;
+	   private long usedBytes;
+	   /* the expiry time of every item that has a ttl */
+	   private final ExpiryTimes expiryTimes;
+	   private final ArrayDeque<Expiry> expiring;
+	   private final PriorityQueue<Expiry> expiringOutOfOrder;
+	   
+	   private static final class Expiry {
+		   private final int key;
+		   private final long expiresAt;
+		   
+		   private Expiry(int key, long expiresAt) {
+			   this.key = key;
+			   this.expiresAt = expiresAt;
+		   }
+	   }
+	   
+	   /* key -> expiry time with linear probing. NO_TTL marks a free slot, removes shift the run back */
+	   private static final class ExpiryTimes {
+		   private int[] keys;
+		   private long[] times;
+		   private int size;
+		   
+		   private ExpiryTimes() {
+			   this.keys = new int[16];
+			   this.times = new long[16];
+			   Arrays.fill(this.times, NO_TTL);
+			   this.size = 0;
+		   }
+		   
+		   private int home(int k) {
+			   int h = k * 0x9E3779B9;
+			   return (h ^ (h >>> 16)) & (this.keys.length - 1);
+		   }
+		   
+		   private int slotOf(int k) {
+			   int mask = this.keys.length - 1;
+			   int j = this.home(k);
+			   while (this.times[j] != NO_TTL && this.keys[j] != k) {
+				   j = (j + 1) & mask;
+			   }
+			   return j;
+		   }
+		   
+		   /* NO_TTL if k has no expiry time*/
+		   private long get(int k) {
+			   return this.times[this.slotOf(k)];
+		   }
+		   
+		   private void put(int k, long time) {
+			   int j = this.slotOf(k);
+			   if (this.times[j] == NO_TTL) {
+				   this.size++;
+			   }
+			   this.keys[j] = k;
+			   this.times[j] = time;
+			   if (2 * this.size > this.keys.length) {
+				   int[] oldKeys = this.keys;
+				   long[] oldTimes = this.times;
+				   this.keys = new int[2 * oldKeys.length];
+				   this.times = new long[2 * oldKeys.length];
+				   Arrays.fill(this.times, NO_TTL);
+				   for (int i = 0; i < oldKeys.length; i++) {
+					   if (oldTimes[i] != NO_TTL) {
+						   int slot = this.slotOf(oldKeys[i]);
+						   this.keys[slot] = oldKeys[i];
+						   this.times[slot] = oldTimes[i];
+					   }
+				   }
+			   }
+		   }
+		   
+		   private void remove(int k) {
+			   int mask = this.keys.length - 1;
+			   int free = this.slotOf(k);
+			   if (this.times[free] == NO_TTL) {
+				   return;
+			   }
+			   this.times[free] = NO_TTL;
+			   this.size--;
+			   /* move back every later entry of the run whose home is not between free and it*/
+			   for (int j = (free + 1) & mask; this.times[j] != NO_TTL; j = (j + 1) & mask) {
+				   if (((j - this.home(this.keys[j])) & mask) >= ((j - free) & mask)) {
+					   this.keys[free] = this.keys[j];
+					   this.times[free] = this.times[j];
+					   this.times[j] = NO_TTL;
+					   free = j;
+				   }
+			   }
+		   }
+		   
+		   private void clear() {
+			   Arrays.fill(this.times, NO_TTL);
+			   this.size = 0;
+		   }
+	   }
+	   
+	   /**
+	    * public BoundedWAVLTree(int maxSize, long maxBytes, long ttl)
+	    *
+	    * Integer.MAX_VALUE, Long.MAX_VALUE and NO_TTL leave the tree unbounded in that respect.
+	    * the clock is System.nanoTime until setClock is called.
+	    */
+	   public BoundedWAVLTree(int maxSize, long maxBytes, long ttl) {
+		   this.tree = new WAVLTree();
+		   this.maxSize = maxSize;
+		   this.maxBytes = maxBytes;
+		   this.ttl = ttl;
+		   this.clock = System::nanoTime;
+		   this.usedBytes = 0;
+		   this.expiryTimes = new ExpiryTimes();
+		   this.expiring = new ArrayDeque<Expiry>();
+		   this.expiringOutOfOrder = new PriorityQueue<Expiry>(Comparator.comparingLong((Expiry e) -> e.expiresAt));
+	   }
+	   
+	   /**
+	    * public void setClock(LongSupplier clock)
+	    *
+	    * sets the time source of the ttls, in nanoseconds. it must never go back.
+	    */
+	   public void setClock(LongSupplier clock) {
+		   this.clock = clock;
+	   }
+	   
+	   /**
+	    * public String search(int k)
+	    *
+	    * as WAVLTree.search, null if the item with key k has expired.
+	    * Complexity O(log n), plus the expired items removed
+	    */
+	   public String search(int k) {
+		   this.evictExpired();
+		   return this.tree.search(k);
+	   }
+	   
+	   /**
+	    * public int insert(int k, String i)
+	    *
+	    * insert(k, i, ttl) with the default ttl of the tree.
+	    */
+	   public int insert(int k, String i) {
+		   return this.insert(k, i, this.ttl);
+	   }
+	   
+	   /**
+	    * public int insert(int k, String i, long ttl)
+	    *
+	    * as WAVLTree.insert, an existing key gets the new info and ttl and -1 is returned.
+	    * ttl is positive, or NO_TTL for an item that never expires. a ttl that would
+	    * end after the last time the clock can show is taken as NO_TTL.
+	    * then the smallest keys are evicted until the tree is within maxSize and maxBytes
+	    * again - which may be the new item itself if its key is the smallest.
+	    * Complexity O(log n), plus O(1) amortized per removed item
+	    */
+	   public int insert(int k, String i, long ttl) {
+		   long now = this.clock.getAsLong();
+		   this.expire(now);
+		   WAVLNode node = this.tree.findInsertionPnt(k);
+		   int res;
+		   if (node != null && node.getKey() == k) {
+			   this.usedBytes += MemoryStats.stringBytes(i) - MemoryStats.stringBytes(node.getValue());
+			   node.setValue(i);
+			   res = -1;
+		   }
+		   else {
+			   res = this.tree.insert(k, i);
+			   this.usedBytes += entryBytes(i);
+		   }
+		   /* now + ttl would overflow. a negative now leaves room for any ttl below NO_TTL*/
+		   if (ttl >= NO_TTL - Math.max(now, 0)) {
+			   this.expiryTimes.remove(k);
+		   }
+		   else {
+			   Expiry entry = new Expiry(k, now + ttl);
+			   this.expiryTimes.put(k, entry.expiresAt);
+			   if (ttl == this.ttl) {
+				   this.expiring.addLast(entry);
+			   }
+			   else {
+				   this.expiringOutOfOrder.add(entry);
+			   }
+		   }
+		   this.trim();
+		   return res;
+	   }
+	   
+	   /**
+	    * public int delete(int k)
+	    *
+	    * as WAVLTree.delete.
+	    * Complexity O(log n), plus the expired items removed
+	    */
+	   public int delete(int k) {
+		   this.evictExpired();
+		   WAVLNode node = this.tree.findInsertionPnt(k);
+		   if (node == null || node.getKey() != k) {
+			   return -1;
+		   }
+		   this.usedBytes -= entryBytes(node.getValue());
+		   this.expiryTimes.remove(k);
+		   return this.tree.delete(k);
+	   }
+	   
+	   /**
+	    * public int evictExpired()
+	    *
+	    * removes the items whose ttl has passed and returns their number.
+	    * Complexity O(1) if none has, else O(log n) for the expired prefix of the keys and
+	    * O(log n) per other expired item, plus O(1) per removed item
+	    */
+	   public int evictExpired() {
+		   return this.expire(this.clock.getAsLong());
+	   }
+	   
+	   private int expire(long now) {
+		   if (!due(this.expiring.peekFirst(), now) && !due(this.expiringOutOfOrder.peek(), now)) {
+			   return 0;
+		   }
+		   /* the expired prefix of the keys goes in one split*/
+		   long bytes = 0;
+		   WAVLNode first = this.tree.minNode;
+		   while (first != null && this.expiryTimes.get(first.getKey()) <= now) {
+			   bytes += entryBytes(first.getValue());
+			   this.expiryTimes.remove(first.getKey());
+			   first = successor(first);
+		   }
+		   int removed = this.removeBefore(first, bytes);
+		   
+		   /* the rest expired out of key order. every key below first is gone*/
+		   removed += this.expireEach(this.expiring, first, now);
+		   removed += this.expireEach(this.expiringOutOfOrder, first, now);
+		   return removed;
+	   }
+	   
+	   private int expireEach(Queue<Expiry> queue, WAVLNode first, long now) {
+		   int removed = 0;
+		   while (due(queue.peek(), now)) {
+			   Expiry entry = queue.poll();
+			   if (first == null || entry.key < first.getKey() || this.expiryTimes.get(entry.key) != entry.expiresAt) {
+				   continue;
+			   }
+			   this.usedBytes -= entryBytes(this.tree.search(entry.key));
+			   this.expiryTimes.remove(entry.key);
+			   this.tree.delete(entry.key);
+			   removed++;
+		   }
+		   return removed;
+	   }
+	   
+	   private static boolean due(Expiry entry, long now) {
+		   return entry != null && entry.expiresAt <= now;
+	   }
+	   
+	   /* evicts the smallest keys until the tree is within its bounds*/
+	   private void trim() {
+		   int excess = this.tree.size() - this.maxSize;
+		   if (excess <= 0 && this.usedBytes <= this.maxBytes) {
+			   return;
+		   }
+		   long bytes = 0;
+		   WAVLNode first = this.tree.minNode;
+		   for (int evicted = 0; first != null && (evicted < excess || this.usedBytes - bytes > this.maxBytes); evicted++) {
+			   bytes += entryBytes(first.getValue());
+			   this.expiryTimes.remove(first.getKey());
+			   first = successor(first);
+		   }
+		   this.removeBefore(first, bytes);
+	   }
+	   
+	   /* removes the items before first, all of them if first is null. bytes is what they take.
+	    * the caller has dropped their expiry times*/
+	   private int removeBefore(WAVLNode first, long bytes) {
+		   this.usedBytes -= bytes;
+		   WAVLNode min = this.tree.minNode;
+		   if (min == first) {
+			   return 0;
+		   }
+		   if (successor(min) == first) {
+			   /* a single item is cheaper to delete than to split off*/
+			   this.tree.delete(min.getKey());
+			   return 1;
+		   }
+		   if (first != null) {
+			   return this.tree.removeBelow(first.getKey());
+		   }
+		   int removed = this.tree.size();
+		   this.tree.clear();
+		   this.expiryTimes.clear();
+		   return removed;
+	   }
+	   
+	   /* the node and the info of an item, as MemoryStats counts them*/
+	   private static long entryBytes(String info) {
+		   return MemoryStats.NODE_BYTES + MemoryStats.stringBytes(info);
+	   }
+	   
+	   /**
+	    * public long usedBytes()
+	    *
+	    * the bytes of the nodes and infos of the items, as bounded by maxBytes.
+	    * the expiry times and index are not counted.
+	    * Complexity O(1)
+	    */
+	   public long usedBytes() {
+		   return this.usedBytes;
+	   }
+	   
+	   public int size() {
+		   this.evictExpired();
+		   return this.tree.size();
+	   }
+	   
+	   public boolean empty() {
+		   return this.size() == 0;
+	   }
+	   
+	   public String min() {
+		   this.evictExpired();
+		   return this.tree.min();
+	   }
+	   
+	   public String max() {
+		   this.evictExpired();
+		   return this.tree.max();
+	   }
+	   
+	   public String select(int i) {
+		   this.evictExpired();
+		   return this.tree.select(i);
+	   }
+	   
+	   public int[] keysInRange(int lo, int hi) {
+		   this.evictExpired();
+		   return this.tree.keysInRange(lo, hi);
+	   }
+   }
+   
+   /**
+    * public static final class SharedWAVLImage
+    *
+    * A read-only copy of a WAVL tree in a memory-mapped file (in /dev/shm to keep it
+    * in memory) that reader processes on the same host search in place, without
+    * loading a tree of their own. one writer process publishes, any number read.
+    * the file has a header and two regions of regionBytes. a region holds one image
+    * of the tree in key order:
+    *   int count, int byte length, int[count] keys, int[count] value ends, the UTF-8 values
+    * (a value end is ~end for a null value).
+    * the header holds a sequence number: even (2v) once version v is published,
+    * odd (2v+1) while version v+1 is written. version v is in region v % 2, so the
+    * writer never writes the region of the newest version, and a reader that
+    * started on version v only has to retry if the writer has since started on
+    * version v+2 (a seqlock whose readers never wait for the writer).
+    * not thread safe for the writer, readers may share an instance.
+    */
+   public static final class SharedWAVLImage {
+	   private static final long MAGIC = 0x5741564C494D4731L;
+	   private static final int HEADER_BYTES = 64;
+	   private static final int MAGIC_OFFSET = 0;
+	   private static final int SEQUENCE_OFFSET = 8;
+	   private static final int REGION_BYTES_OFFSET = 16;
+	   private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+	   
+	   private final MappedByteBuffer buffer;
+	   private final int regionBytes;
+	   private final boolean writer;
+	   
+	   private SharedWAVLImage(MappedByteBuffer buffer, int regionBytes, boolean writer) {
+		   this.buffer = buffer;
+		   this.regionBytes = regionBytes;
+		   this.writer = writer;
+	   }
+	   
+	   /**
+	    * public static SharedWAVLImage create(Path file, int regionBytes)
+	    *
+	    * creates the file for a writer, with an empty tree as version 0.
+	    * an existing file is unlinked first rather than truncated, so readers that
+	    * still map it keep reading it instead of faulting.
+	    * Complexity O(regionBytes) for the file system to zero the file
+	    */
+	   public static SharedWAVLImage create(Path file, int regionBytes) throws IOException {
+		   if (regionBytes < 8 || regionBytes > (Integer.MAX_VALUE - HEADER_BYTES) / 2) {
+			   throw new IllegalArgumentException("region size " + regionBytes);
+		   }
+		   Files.deleteIfExists(file);
+		   MappedByteBuffer buffer;
+		   try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			   buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + 2L * regionBytes);
+		   }
+		   buffer.order(ByteOrder.nativeOrder());
+		   buffer.putLong(REGION_BYTES_OFFSET, regionBytes);
+		   LONGS.setRelease(buffer, MAGIC_OFFSET, MAGIC);
+		   return new SharedWAVLImage(buffer, regionBytes, true);
+	   }
+	   
+	   /**
+	    * public static SharedWAVLImage open(Path file)
+	    *
+	    * maps a file made by create for reading.
+	    * Complexity O(1)
+	    */
+	   public static SharedWAVLImage open(Path file) throws IOException {
+		   MappedByteBuffer buffer;
+		   try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			   buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		   }
+		   buffer.order(ByteOrder.nativeOrder());
+		   if (buffer.capacity() < HEADER_BYTES || (long) LONGS.getAcquire(buffer, MAGIC_OFFSET) != MAGIC) {
+			   throw new IOException(file + " is not a shared WAVL image");
+		   }
+		   int regionBytes = (int) buffer.getLong(REGION_BYTES_OFFSET);
+		   if (buffer.capacity() != HEADER_BYTES + 2L * regionBytes) {
+			   throw new IOException(file + " is not a shared WAVL image");
+		   }
+		   return new SharedWAVLImage(buffer, regionBytes, false);
+	   }
+	   
+	   /**
+	    * public long publish(WAVLTree tree)
+	    *
+	    * writes tree as the next version and returns its number. readers see
+	    * either the previous version or the whole new one.
+	    * throws IllegalArgumentException if the image does not fit in a region.
+	    * Complexity O(n + total value length)
+	    */
+	   public long publish(WAVLTree tree) {
+		   if (!this.writer) {
+			   throw new IllegalStateException("opened for reading");
+		   }
+		   int[] keys = tree.keysToArray();
+		   String[] infos = tree.infoToArray();
+		   byte[][] values = new byte[infos.length][];
+		   long length = 8 + 8L * keys.length;
+		   for (int j = 0; j < infos.length; j++) {
+			   if (infos[j] != null) {
+				   values[j] = infos[j].getBytes(StandardCharsets.UTF_8);
+				   length += values[j].length;
+			   }
+		   }
+		   if (length > this.regionBytes) {
+			   throw new IllegalArgumentException("image of " + length + " bytes does not fit a region of " + this.regionBytes);
+		   }
+		   
+		   long sequence = (long) LONGS.getOpaque(this.buffer, SEQUENCE_OFFSET);
+		   long version = (sequence >>> 1) + 1;
+		   int base = this.regionBase(version);
+		   LONGS.setOpaque(this.buffer, SEQUENCE_OFFSET, sequence + 1);
+		   /* the image writes must not be seen before the odd sequence*/
+		   VarHandle.storeStoreFence();
+		   this.buffer.putInt(base, keys.length);
+		   this.buffer.putInt(base + 4, (int) (length - 8 - 8L * keys.length));
+		   int end = 0;
+		   ByteBuffer bytes = this.buffer.duplicate();
+		   bytes.position(base + 8 + 8 * keys.length);
+		   for (int j = 0; j < keys.length; j++) {
+			   this.buffer.putInt(base + 8 + 4 * j, keys[j]);
+			   if (values[j] == null) {
+				   this.buffer.putInt(base + 8 + 4 * (keys.length + j), ~end);
+				   continue;
+			   }
+			   bytes.put(values[j]);
+			   end += values[j].length;
+			   this.buffer.putInt(base + 8 + 4 * (keys.length + j), end);
+		   }
+		   LONGS.setRelease(this.buffer, SEQUENCE_OFFSET, sequence + 2);
+		   return version;
+	   }
+	   
+	   /**
+	    * public long version()
+	    *
+	    * the number of the newest published version, 0 before the first publish.
+	    * Complexity O(1)
+	    */
+	   public long version() {
+		   return (long) LONGS.getAcquire(this.buffer, SEQUENCE_OFFSET) >>> 1;
+	   }
+	   
+	   private int regionBase(long version) {
+		   return HEADER_BYTES + (int) (version & 1) * this.regionBytes;
+	   }
+	   
+	   /* the sequence number to read the newest version under*/
+	   private long beginRead() {
+		   return (long) LONGS.getAcquire(this.buffer, SEQUENCE_OFFSET);
+	   }
+	   
+	   /* true if the region read since beginRead returned sequence was not rewritten meanwhile*/
+	   private boolean validate(long sequence) {
+		   VarHandle.acquireFence();
+		   long now = (long) LONGS.getOpaque(this.buffer, SEQUENCE_OFFSET);
+		   return now < 2 * (sequence >>> 1) + 3;
+	   }
+	   
+	   /* the position of the first key >= k in the image at base, count if there is none*/
+	   private int lowerBound(int base, int count, int k) {
+		   int lo = 0;
+		   int hi = count;
+		   while (lo < hi) {
+			   int mid = (lo + hi) >>> 1;
+			   if (this.buffer.getInt(base + 8 + 4 * mid) < k) {
+				   lo = mid + 1;
+			   }
+			   else {
+				   hi = mid;
+			   }
+		   }
+		   return lo;
+	   }
+	   
+	   private String valueAt(int base, int count, int pos) {
+		   int end = this.buffer.getInt(base + 8 + 4 * (count + pos));
+		   if (end < 0) {
+			   return null;
+		   }
+		   int start = 0;
+		   if (pos > 0) {
+			   start = this.buffer.getInt(base + 8 + 4 * (count + pos - 1));
+			   start = start < 0 ? ~start : start;
+		   }
+		   if (start > end || 8L + 8L * count + end > this.regionBytes) {
+			   throw new IndexOutOfBoundsException("torn image");
+		   }
+		   byte[] value = new byte[end - start];
+		   this.buffer.get(base + 8 + 8 * count + start, value);
+		   return new String(value, StandardCharsets.UTF_8);
+	   }
+	   
+	   /* count, bounded so a torn read cannot index outside the region*/
+	   private int countAt(int base) {
+		   int count = this.buffer.getInt(base);
+		   if (count < 0 || 8L + 8L * count > this.regionBytes) {
+			   throw new IndexOutOfBoundsException("torn image");
+		   }
+		   return count;
+	   }
+	   
+	   /**
+	    * public int size()
+	    *
+	    * as WAVLTree.size, for the newest version.
+	    * Complexity O(1)
+	    */
+	   public int size() {
+		   while (true) {
+			   long sequence = this.beginRead();
+			   int count = this.buffer.getInt(this.regionBase(sequence >>> 1));
+			   if (this.validate(sequence)) {
+				   return count;
+			   }
+		   }
+	   }
+	   
+	   /**
+	    * public String search(int k)
+	    *
+	    * as WAVLTree.search, for the newest version.
+	    * Complexity O(log n)
+	    */
+	   public String search(int k) {
+		   while (true) {
+			   long sequence = this.beginRead();
+			   String res = null;
+			   try {
+				   int base = this.regionBase(sequence >>> 1);
+				   int count = this.countAt(base);
+				   int pos = this.lowerBound(base, count, k);
+				   if (pos < count && this.buffer.getInt(base + 8 + 4 * pos) == k) {
+					   res = this.valueAt(base, count, pos);
+				   }
+			   }
+			   catch (RuntimeException e) {
+				   if (this.validate(sequence)) {
+					   throw e;
+				   }
+				   continue; // torn by the writer
+			   }
+			   if (this.validate(sequence)) {
+				   return res;
+			   }
+		   }
+	   }
+	   
+	   /**
+	    * public String select(int i)
+	    *
+	    * as WAVLTree.select, for the newest version.
+	    * Complexity O(1)
+	    */
+	   public String select(int i) {
+		   while (true) {
+			   long sequence = this.beginRead();
+			   String res = "-1";
+			   try {
+				   int base = this.regionBase(sequence >>> 1);
+				   int count = this.countAt(base);
+				   if (i >= 1 && i <= count) {
+					   res = this.valueAt(base, count, i - 1);
+				   }
+			   }
+			   catch (RuntimeException e) {
+				   if (this.validate(sequence)) {
+					   throw e;
+				   }
+				   continue;
+			   }
+			   if (this.validate(sequence)) {
+				   return res;
+			   }
+		   }
+	   }
+	   
+	   /**
+	    * public int[] keysInRange(int lo, int hi)
+	    *
+	    * as WAVLTree.keysInRange, for the newest version.
+	    * Complexity O(log n + number of keys in the range)
+	    */
+	   public int[] keysInRange(int lo, int hi) {
+		   while (true) {
+			   long sequence = this.beginRead();
+			   int[] res = new int[0];
+			   try {
+				   int base = this.regionBase(sequence >>> 1);
+				   int count = this.countAt(base);
+				   if (lo <= hi) {
+					   int from = this.lowerBound(base, count, lo);
+					   int to = hi == Integer.MAX_VALUE ? count : this.lowerBound(base, count, hi + 1);
+					   res = new int[to - from];
+					   for (int j = 0; j < res.length; j++) {
+						   res[j] = this.buffer.getInt(base + 8 + 4 * (from + j));
+					   }
+				   }
+			   }
+			   catch (RuntimeException e) {
+				   if (this.validate(sequence)) {
+					   throw e;
+				   }
+				   continue;
+			   }
+			   if (this.validate(sequence)) {
+				   return res;
+			   }
+		   }
+	   }
+   }
+   
+   /**
+    * public static class ValueDictionary
+    *
+    * Dictionary encoding of info strings.
+    * every distinct string gets an int code and is stored once, UTF-8 encoded,
+    * in a byte arena off the heap (a direct ByteBuffer), so the GC neither copies
+    * nor scans the encoded strings. strings are looked up by an open addressing
+    * table over the arena, so no String objects are kept alive. code -1 stands for null.
+    * decoding copies the bytes out of the arena once more than a heap array would.
+    * encode and codeOf must run on the one writer thread. decode may run on any
+    * thread for a code it got safely (through a Snapshot, for example): the arena
+    * and its offsets are copied when they grow and published together through a
+    * volatile field, so a reader never sees a grown buffer before its contents.
+    * a replaced arena is freed by the GC with the buffer object.
+    */
+   public static class ValueDictionary {
+	   private static final long BUFFER_BYTES = MemoryStats.shallowBytes(ByteBuffer.allocateDirect(0).getClass());
+	   
+	   /* the arena as decode sees it, replaced as a whole when it grows */
+	   private volatile Arena arena;
+	   private int arenaSize;
+	   private int[] hashes;
+	   private int[] table; // code + 1 of each used slot, 0 if the slot is free
+	   private int count;
+	   
+	   private static final class Arena {
+		   private final ByteBuffer bytes; // direct, only read and written at absolute indexes
+		   private final int[] offsets; // string of code c is bytes[offsets[c] .. offsets[c+1])
+		   
+		   private Arena(ByteBuffer bytes, int[] offsets) {
+			   this.bytes = bytes;
+			   this.offsets = offsets;
+		   }
+	   }
+	   
+	   public ValueDictionary() {
+		   this.arena = new Arena(ByteBuffer.allocateDirect(256), new int[17]);
+		   this.arenaSize = 0;
+		   this.hashes = new int[16];
+		   this.table = new int[32];
+		   this.count = 0;
+	   }
+	   
+	   /**
+	    * public int encode(String value)
+	    *
+	    * Returns the code of value, adding it to the dictionary if it is new.
+	    * Complexity O(length of value)
+	    */
+	   public int encode(String value) {
+		   if (value == null) {
+			   return -1;
+		   }
+		   byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		   int hash = hash(bytes);
+		   int slot = this.find(bytes, hash);
+		   if (this.table[slot] != 0) {
+			   return this.table[slot] - 1;
+		   }
+		   int code = this.count++;
+		   Arena current = this.arena;
+		   ByteBuffer arenaBytes = current.bytes;
+		   int[] offsets = current.offsets;
+		   if (code == this.hashes.length) {
+			   this.hashes = Arrays.copyOf(this.hashes, 2 * code);
+			   offsets = Arrays.copyOf(offsets, 2 * code + 1);
+		   }
+		   if (this.arenaSize + bytes.length > arenaBytes.capacity()) {
+			   arenaBytes = ByteBuffer.allocateDirect(Math.max(2 * arenaBytes.capacity(), this.arenaSize + bytes.length));
+			   arenaBytes.put(0, current.bytes, 0, this.arenaSize);
+		   }
+		   /* a new code is only written past what the published arena's readers can reach*/
+		   arenaBytes.put(this.arenaSize, bytes);
+		   this.arenaSize += bytes.length;
+		   offsets[code + 1] = this.arenaSize;
+		   if (arenaBytes != current.bytes || offsets != current.offsets) {
+			   this.arena = new Arena(arenaBytes, offsets);
+		   }
+		   this.hashes[code] = hash;
+		   this.table[slot] = code + 1;
+		   if (2 * this.count > this.table.length) {
+			   this.rehash();
+		   }
+		   return code;
+	   }
+	   
+	   /**
+	    * public int codeOf(String value)
+	    *
+	    * Returns the code of value, or -1 if value is null or not in the dictionary.
+	    * Complexity O(length of value)
+	    */
+	   public int codeOf(String value) {
+		   if (value == null) {
+			   return -1;
+		   }
+		   byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		   return this.table[this.find(bytes, hash(bytes))] - 1;
+	   }
+	   
+	   /**
+	    * public String decode(int code)
+	    *
+	    * Returns the string of code (null for -1).
+	    * Complexity O(length of the string)
+	    */
+	   public String decode(int code) {
+		   if (code == -1) {
+			   return null;
+		   }
+		   Arena current = this.arena;
+		   int start = current.offsets[code];
+		   byte[] bytes = new byte[current.offsets[code + 1] - start];
+		   current.bytes.get(start, bytes);
+		   return new String(bytes, StandardCharsets.UTF_8);
+	   }
+	   
+	   /* number of distinct strings */
+	   public int size() {
+		   return this.count;
+	   }
+	   
+	   /* bytes used by the encoded strings */
+	   public int arenaBytes() {
+		   return this.arenaSize;
+	   }
+	   
+	   /* estimated heap bytes of the dictionary, its arrays included, its arena not */
+	   public long heapBytes() {
+		   Arena current = this.arena;
+		   return MemoryStats.shallowBytes(ValueDictionary.class)
+				   + MemoryStats.shallowBytes(Arena.class)
+				   + BUFFER_BYTES
+				   + MemoryStats.arrayBytes(current.offsets.length, 4)
+				   + MemoryStats.arrayBytes(this.hashes.length, 4)
+				   + MemoryStats.arrayBytes(this.table.length, 4);
+	   }
+	   
+	   /* bytes reserved off the heap for the arena */
+	   public long offHeapBytes() {
+		   return this.arena.bytes.capacity();
+	   }
+	   
+	   /* slot holding bytes, or the free slot where it should be added */
+	   private int find(byte[] bytes, int hash) {
+		   int mask = this.table.length - 1;
+		   int slot = hash & mask;
+		   while (this.table[slot] != 0) {
+			   int code = this.table[slot] - 1;
+			   if (this.hashes[code] == hash && this.equalsArena(code, bytes)) {
+				   return slot;
+			   }
+			   slot = (slot + 1) & mask;
+		   }
+		   return slot;
+	   }
+	   
+	   private boolean equalsArena(int code, byte[] bytes) {
+		   Arena current = this.arena;
+		   int start = current.offsets[code];
+		   if (current.offsets[code + 1] - start != bytes.length) {
+			   return false;
+		   }
+		   return current.bytes.slice(start, bytes.length).mismatch(ByteBuffer.wrap(bytes)) == -1;
+	   }
+	   
+	   private void rehash() {
+		   this.table = new int[2 * this.table.length];
+		   int mask = this.table.length - 1;
+		   for (int code = 0; code < this.count; code++) {
+			   int slot = this.hashes[code] & mask;
+			   while (this.table[slot] != 0) {
+				   slot = (slot + 1) & mask;
+			   }
+			   this.table[slot] = code + 1;
+		   }
+	   }
+	   
+	   private static int hash(byte[] bytes) {
+		   int h = Arrays.hashCode(bytes);
+		   return h ^ (h >>> 16);
+	   }
+   }
+   
+   /**
+    * public class Snapshot
+    *
+    * A read only view of the tree at a fixed epoch (see WAVLTree.snapshot()).
+    * Every node is read through its version at that epoch.
+    */
+   public class Snapshot implements AutoCloseable {
+	   private final long epoch;
+	   private final WAVLNode root;
+	   private volatile boolean closed;
+	   
+	   private Snapshot(long epoch, WAVLNode root) {
+		   this.epoch = epoch;
+		   this.root = root;
+		   this.closed = false;
+	   }
+	   
+	   public long getEpoch() {
+		   return this.epoch;
+	   }
+	   
+	   /**
+	    * public int size()
+	    *
+	    * Returns the number of items in the tree at the snapshot epoch.
+	    * Complexity O(1)
+	    */
+	   public int size() {
+		   if (this.root == null) {
+			   return 0;
+		   }
+		   return this.root.versionAt(this.epoch).subtreeSize;
+	   }
+	   
+	   /**
+	    * public String search(int k)
+	    *
+	    * returns the info of the item with key k at the snapshot epoch, or null.
+	    * Complexity O(log n)
+	    */
+	   public String search(int k) {
+		   WAVLNode node = this.root;
+		   while (node != null && node.isRealNode()) {
+			   Version v = node.versionAt(this.epoch);
+			   if (v.key == k) {
+				   return v.deleted ? null : valueOf(v);
+			   }
+			   node = v.key > k ? v.left : v.right;
+		   }
+		   return null;
+	   }
+	   
+	   /**
+	    * public String select(int i)
+	    *
+	    * Returns the value of the i'th smallest key at the snapshot epoch
+	    * (return "-1" if there is no such key, as WAVLTree.select)
+	    * Complexity O(log n)
+	    */
+	   public String select(int i) {
+		   if (i < 1 || i > this.size()) {
+			   return "-1";
+		   }
+		   int j = i - 1;
+		   WAVLNode node = this.root;
+		   while (true) {
+			   Version v = node.versionAt(this.epoch);
+			   int r = v.left.versionAt(this.epoch).subtreeSize;
+			   int self = v.liveCount();
+			   if (j >= r && j < r + self) {
+				   return j == r ? valueOf(v) : v.bucket[j - r - 1];
+			   }
+			   if (j < r) {
+				   node = v.left;
+			   }
+			   else {
+				   j = j - r - self;
+				   node = v.right;
+			   }
+		   }
+	   }
+	   
+	   /**
+	    * public int[] keysToArray()
+	    *
+	    * Returns a sorted array of the keys at the snapshot epoch.
+	    * Complexity O(n)
+	    */
+	   public int[] keysToArray() {
+		   List<Version> lst = new ArrayList<Version>();
+		   this.collect(this.root, lst);
+		   int[] arr = new int[this.size()];
+		   int i = 0;
+		   for (Version v: lst) {
+			   for (int j = 0; j < v.count; j++) {
+				   arr[i++] = v.key;
+			   }
+		   }
+		   return arr;
+	   }
+	   
+	   /**
+	    * public String[] infoToArray()
+	    *
+	    * Returns the infos at the snapshot epoch, sorted by their keys.
+	    * Complexity O(n)
+	    */
+	   public String[] infoToArray() {
+		   List<Version> lst = new ArrayList<Version>();
+		   this.collect(this.root, lst);
+		   String[] arr = new String[this.size()];
+		   int i = 0;
+		   for (Version v: lst) {
+			   arr[i++] = valueOf(v);
+			   for (int j = 1; j < v.count; j++) {
+				   arr[i++] = v.bucket[j - 1];
+			   }
+		   }
+		   return arr;
+	   }
+	   
+	   private String valueOf(Version v) {
+		   if (dictionary != null) {
+			   return dictionary.decode(v.infoCode);
+		   }
+		   return v.info;
+	   }
+	   
+	   /* in order versions of the live nodes under node */
+	   private void collect(WAVLNode node, List<Version> lst) {
+		   if (node == null || !node.isRealNode()) {
+			   return;
+		   }
+		   Version v = node.versionAt(this.epoch);
+		   collect(v.left, lst);
+		   if (!v.deleted) {
+			   lst.add(v);
+		   }
+		   collect(v.right, lst);
+	   }
+	   
+	   /**
+	    * public void close()
+	    *
+	    * releases the snapshot. the versions it held are reclaimed by the
+	    * writing thread on its next operation.
+	    * Complexity O(number of open snapshots)
+	    */
+	   public void close() {
+		   synchronized (openSnapshots) {
+			   if (this.closed) {
+				   return;
+			   }
+			   this.closed = true;
+			   openSnapshots.remove(this);
+			   long latest = -1;
+			   for (Snapshot snapshot: openSnapshots) {
+				   latest = Math.max(latest, snapshot.epoch);
+			   }
+			   latestPinned = latest;
+			   reclaimPending = true;
+		   }
+	   }
+   }
+   
+   /**
+    * public static final class MemoryStats
+    *
+    * Heap accounting of one tree, see WAVLTree.memoryStats().
+    * byte figures are estimates for HotSpot's object layout as JOL reports it:
+    * 12 byte object headers (16 for arrays), 4 byte references when the heap is
+    * small enough for compressed oops (below 32GB), 8 byte alignment, and
+    * strings as compact (one byte per char unless a char needs two).
+    * the deep fields are -1 unless the stats come from memoryStats(true).
+    */
+   public static final class MemoryStats {
+	   static final int REFERENCE_BYTES = Runtime.getRuntime().maxMemory() < (32L << 30) ? 4 : 8;
+	   /* a real node of a tree without a value dictionary */
+	   static final long NODE_BYTES = shallowBytes(PlainNode.class);
+	   static final long CODED_NODE_BYTES = shallowBytes(CodedNode.class);
+	   static final long VIRTUAL_NODE_BYTES = shallowBytes(WAVLNode.class);
+	   static final long TREE_BYTES = shallowBytes(WAVLTree.class);
+	   static final long VERSION_BYTES = shallowBytes(Version.class);
+	   private static final long STRING_BYTES = shallowBytes(String.class);
+	   
+	   /* real nodes in the tree, tombstones included */
+	   public final int realNodes;
+	   /* virtual nodes - the tree shares a single one */
+	   public final int virtualNodes;
+	   public final int tombstones;
+	   /* rank of the root, an upper bound on the height (-1 if empty) */
+	   public final int maxRank;
+	   /* the tree object and its nodes, without the infos */
+	   public final long shallowBytes;
+	   /* deep: edges on the longest root to leaf path (-1 if empty) */
+	   public final int height;
+	   /* deep: average depth of the real nodes, the root has depth 0 */
+	   public final double averageDepth;
+	   /* deep: the info strings (each String object once), or the value dictionary with its off-heap arena */
+	   public final long valueBytes;
+	   /* deep: old node versions kept for open snapshots */
+	   public final long versionBytes;
+	   /* deep: everything the tree keeps alive - shallow, buckets, values and versions */
+	   public final long retainedBytes;
+	   
+	   MemoryStats(int realNodes, int virtualNodes, int tombstones, int maxRank, long shallowBytes,
+			   int height, double averageDepth, long valueBytes, long versionBytes, long retainedBytes) {
+		   this.realNodes = realNodes;
+		   this.virtualNodes = virtualNodes;
+		   this.tombstones = tombstones;
+		   this.maxRank = maxRank;
+		   this.shallowBytes = shallowBytes;
+		   this.height = height;
+		   this.averageDepth = averageDepth;
+		   this.valueBytes = valueBytes;
+		   this.versionBytes = versionBytes;
+		   this.retainedBytes = retainedBytes;
+	   }
+	   
+	   /**
+	    * static long shallowBytes(Class<?> c)
+	    *
+	    * Returns the estimated size of an instance of c: the header plus its
+	    * instance fields (inherited and synthetic ones included), aligned to 8.
+	    * Complexity O(number of fields)
+	    */
+	   static long shallowBytes(Class<?> c) {
+		   long size = 12;
+		   for (Class<?> k = c; k != null; k = k.getSuperclass()) {
+			   for (Field field: k.getDeclaredFields()) {
+				   if (Modifier.isStatic(field.getModifiers())) {
+					   continue;
+				   }
+				   Class<?> type = field.getType();
+				   if (!type.isPrimitive()) {
+					   size += REFERENCE_BYTES;
+				   }
+				   else if (type == long.class || type == double.class) {
+					   size += 8;
+				   }
+				   else if (type == int.class || type == float.class) {
+					   size += 4;
+				   }
+				   else if (type == short.class || type == char.class) {
+					   size += 2;
+				   }
+				   else {
+					   size += 1;
+				   }
+			   }
+		   }
+		   return align(size);
+	   }
+	   
+	   static long arrayBytes(int length, int elementBytes) {
+		   return align(16 + (long) length * elementBytes);
+	   }
+	   
+	   /* the String object and its byte array, 0 for null or a string already in seen */
+	   static long stringBytes(String s, Map<String, Boolean> seen) {
+		   if (s == null || seen.put(s, Boolean.TRUE) != null) {
+			   return 0;
+		   }
+		   return stringBytes(s);
+	   }
+	   
+	   /* the String object and its byte array, 0 for null */
+	   static long stringBytes(String s) {
+		   if (s == null) {
+			   return 0;
+		   }
+		   int charBytes = 1;
+		   for (int j = 0; j < s.length(); j++) {
+			   if (s.charAt(j) > 0xFF) {
+				   charBytes = 2;
+				   break;
+			   }
+		   }
+		   return STRING_BYTES + arrayBytes(s.length(), charBytes);
+	   }
+	   
+	   private static long align(long size) {
+		   return (size + 7) & ~7L;
+	   }
+	   
+	   @Override
+	   public String toString() {
+		   return "realNodes=" + this.realNodes + " virtualNodes=" + this.virtualNodes + " tombstones=" + this.tombstones
+				   + " maxRank=" + this.maxRank + " shallowBytes=" + this.shallowBytes + " height=" + this.height
+				   + " averageDepth=" + this.averageDepth + " valueBytes=" + this.valueBytes
+				   + " versionBytes=" + this.versionBytes + " retainedBytes=" + this.retainedBytes;
+	   }
+   }
+   
+   /**
+    * static class Version
+    *
+    * the field values of a node from epoch stamp on.
+    * versions of a node are linked newest first.
+    */
+   static final class Version {
+	   final long stamp;
+	   final int key;
+	   final String info;
+	   final int infoCode;
+	   final WAVLNode left;
+	   final WAVLNode right;
+	   final int subtreeSize;
+	   final boolean deleted;
+	   final int count;
+	   final String[] bucket;
+	   Version next;
+	   
+	   Version(long stamp, WAVLNode node, Version next) {
+		   this.stamp = stamp;
+		   this.key = node.key;
+		   this.info = node.info();
+		   this.infoCode = node.infoCode();
+		   this.left = node.left;
+		   this.right = node.right;
+		   this.subtreeSize = node.subtreeSize;
+		   this.deleted = node.isDeleted;
+		   this.count = node.count;
+		   this.bucket = node.bucket;
+		   this.next = next;
+	   }
+	   
+	   int liveCount() {
+		   return this.deleted ? 0 : this.count;
+	   }
+   }
+   
+   /**
+    * public static class DifferentialFuzzer
+    *
+    * Randomized differential test of the tree engines against java.util.TreeMap.
+    * every thread runs its own random traces of insert / delete / search / select /
+    * min / max, compares every result with a TreeMap and validates the tree
+    * every VALIDATE_PERIOD operations. a failing trace is shrunk to a short
+    * trace that still fails (delta debugging) and reported. the wrapper and snapshot
+    * engines have drivers of their own (see checkTiered, checkSnapshots, checkSharded and checkBounded). the traces of an
+    * engine with background work (TIERED) are not deterministic and are reported whole.
+    * run main() on every build: it exits with status 1 on a failure.
+    */
+   public static class DifferentialFuzzer {
+	   private static final int VALIDATE_PERIOD = 256;
+	   private static final int INSERT = 0;
+	   private static final int DELETE = 1;
+	   private static final int SEARCH = 2;
+	   private static final int SELECT = 3;
+	   private static final int MIN_MAX = 4;
+	   private static final int COMPACT = 5;
+	   private static final int TIERED_FREEZE_SIZE = 8;
+	   private static final int MAX_SNAPSHOTS = 4;
+	   private static final int[] SHARD_SPLIT_POINTS = {16, 64, 256};
+	   private static final int SHARD_SPLIT_SIZE = 16;
+	   private static final int BOUNDED_MAX_SIZE = 64;
+	   private static final long BOUNDED_MAX_BYTES = 48 * (MemoryStats.NODE_BYTES + 64);
+	   private static final long BOUNDED_TTL = 300;
+	   
+	   /* the tree variants under test */
+	   public enum Engine {
+		   BOTTOM_UP, TOP_DOWN, LAZY_DELETE, DICTIONARY, MULTISET, MULTISET_TOP_DOWN, MULTISET_LAZY, ADAPTIVE, ADAPTIVE_LAZY,
+		   /* a TieredWAVLTree with a tiny freeze size, so the background merges run during the trace */
+		   TIERED,
+		   /* a tree (a lazy delete one) read through open snapshots while it is rotated, rebuilt and split */
+		   SNAPSHOTS, SNAPSHOTS_LAZY,
+		   /* a ShardedWAVLTree whose shards are split and joined every few dozen inserts */
+		   SHARDED,
+		   /* a BoundedWAVLTree on a clock of one tick per operation, evicting and expiring all the time */
+		   BOUNDED;
+		   
+		   /* false for the engines with their own driver (newTree is not defined for them) */
+		   public boolean isTree() {
+			   return this.ordinal() < TIERED.ordinal();
+		   }
+		   
+		   /* false if a trace may pass or fail with the timing of background work */
+		   boolean deterministic() {
+			   return this != TIERED;
+		   }
+		   
+		   WAVLTree newTree() {
+			   if (!this.isTree()) {
+				   throw new UnsupportedOperationException(this + " is not a single tree");
+			   }
+			   WAVLTree tree = new WAVLTree();
+			   if (this == LAZY_DELETE || this == MULTISET_LAZY || this == ADAPTIVE_LAZY) {
+				   tree.setLazyDelete(true);
+			   }
+			   if (this == MULTISET || this == MULTISET_TOP_DOWN || this == MULTISET_LAZY) {
+				   tree.setMultiset(true);
+			   }
+			   if (this == DICTIONARY) {
+				   tree.setValueDictionary(new ValueDictionary());
+			   }
+			   if (this == ADAPTIVE || this == ADAPTIVE_LAZY) {
+				   tree.setAdaptive(true);
+			   }
+			   return tree;
+		   }
+		   
+		   boolean topDown() {
+			   return this == TOP_DOWN || this == MULTISET_TOP_DOWN;
+		   }
+		   
+		   int insert(WAVLTree tree, int k, String i) {
+			   return this.topDown() ? tree.insertTopDown(k, i) : tree.insert(k, i);
+		   }
+		   
+		   int delete(WAVLTree tree, int k) {
+			   return this.topDown() ? tree.deleteTopDown(k) : tree.delete(k);
+		   }
+	   }
+	   
+	   /* a failing trace: ops[j] = {operation, key or index, value tag} */
+	   public static class Failure {
+		   public final Engine engine;
+		   public final long seed;
+		   public final int[][] ops;
+		   public final String message;
+		   
+		   Failure(Engine engine, long seed, int[][] ops, String message) {
+			   this.engine = engine;
+			   this.seed = seed;
+			   this.ops = ops;
+			   this.message = message;
+		   }
+		   
+		   public String toString() {
+			   StringBuilder sb = new StringBuilder();
+			   sb.append(this.engine).append(" seed ").append(this.seed).append(": ").append(this.message);
+			   sb.append(" after ").append(this.ops.length).append(" ops:");
+			   String[] names = {"insert", "delete", "search", "select", "minmax", "compact"};
+			   for (int[] op: this.ops) {
+				   sb.append(' ').append(names[op[0]]).append('(').append(op[1]).append(')');
+			   }
+			   return sb.toString();
+		   }
+	   }
+	   
+	   /**
+	    * public static List<Failure> run(Engine[] engines, int threads, int tracesPerEngine, int opsPerTrace, int keyRange, long seed)
+	    *
+	    * runs tracesPerEngine random traces for each engine on threads threads.
+	    * Returns the shrunk failing traces (empty if all traces passed).
+	    */
+	   public static List<Failure> run(Engine[] engines, int threads, int tracesPerEngine, int opsPerTrace, int keyRange, long seed) throws Exception {
+		   ExecutorService executor = Executors.newFixedThreadPool(threads);
+		   try {
+			   List<Future<Failure>> futures = new ArrayList<Future<Failure>>();
+			   for (Engine engine: engines) {
+				   for (int t = 0; t < tracesPerEngine; t++) {
+					   long traceSeed = seed + 1000003L * t + engine.ordinal();
+					   futures.add(executor.submit(() -> {
+						   int[][] ops = randomTrace(new Random(traceSeed), opsPerTrace, keyRange);
+						   String message = check(engine, ops);
+						   if (message == null) {
+							   return null;
+						   }
+						   if (!engine.deterministic()) {
+							   return new Failure(engine, traceSeed, ops, message);
+						   }
+						   int[][] shrunk = shrink(engine, ops);
+						   return new Failure(engine, traceSeed, shrunk, check(engine, shrunk));
+					   }));
+				   }
+			   }
+			   List<Failure> failures = new ArrayList<Failure>();
+			   for (Future<Failure> future: futures) {
+				   if (future.get() != null) {
+					   failures.add(future.get());
+				   }
+			   }
+			   return failures;
+		   }
+		   finally {
+			   executor.shutdown();
+		   }
+	   }
+	   
+	   private static int[][] randomTrace(Random random, int length, int keyRange) {
+		   int[][] ops = new int[length][];
+		   for (int j = 0; j < length; j++) {
+			   int p = random.nextInt(100);
+			   int op = p < 40 ? INSERT : p < 70 ? DELETE : p < 85 ? SEARCH : p < 95 ? SELECT : p < 98 ? MIN_MAX : COMPACT;
+			   int arg = op == SELECT ? random.nextInt(keyRange + 2) : random.nextInt(keyRange);
+			   ops[j] = new int[] {op, arg, j};
+		   }
+		   return ops;
+	   }
+	   
+	   /**
+	    * static String check(Engine engine, int[][] ops)
+	    *
+	    * runs ops on a new tree and a TreeMap of the infos of every key.
+	    * Returns a description of the first difference or broken invariant, or null.
+	    */
+	   static String check(Engine engine, int[][] ops) {
+		   if (engine == Engine.TIERED) {
+			   return checkTiered(ops);
+		   }
+		   if (engine == Engine.SNAPSHOTS || engine == Engine.SNAPSHOTS_LAZY) {
+			   return checkSnapshots(engine == Engine.SNAPSHOTS_LAZY, ops);
+		   }
+		   if (engine == Engine.SHARDED) {
+			   return checkSharded(ops);
+		   }
+		   if (engine == Engine.BOUNDED) {
+			   return checkBounded(ops);
+		   }
+		   WAVLTree tree = engine.newTree();
+		   TreeMap<Integer, List<String>> map = new TreeMap<Integer, List<String>>();
+		   int size = 0;
+		   try {
+			   for (int j = 0; j < ops.length; j++) {
+				   int k = ops[j][1];
+				   String value = "v" + ops[j][2];
+				   String expected;
+				   String actual;
+				   switch (ops[j][0]) {
+				   case INSERT:
+					   expected = String.valueOf(map.containsKey(k) && !tree.isMultiset());
+					   actual = String.valueOf(engine.insert(tree, k, value) == -1);
+					   if (!map.containsKey(k) || !tree.isMultiset()) {
+						   size += map.containsKey(k) ? 0 : 1;
+						   map.put(k, new ArrayList<String>());
+					   }
+					   else {
+						   size++;
+					   }
+					   map.get(k).add(value);
+					   if (!tree.isMultiset()) {
+						   map.get(k).subList(0, map.get(k).size() - 1).clear();
+					   }
+					   break;
+				   case DELETE:
+					   expected = String.valueOf(!map.containsKey(k));
+					   actual = String.valueOf(engine.delete(tree, k) == -1);
+					   if (map.containsKey(k)) {
+						   size--;
+						   map.get(k).remove(map.get(k).size() - 1);
+						   if (map.get(k).isEmpty()) {
+							   map.remove(k);
+						   }
+					   }
+					   break;
+				   case SEARCH:
+					   expected = map.containsKey(k) ? map.get(k).get(0) : null;
+					   actual = tree.search(k);
+					   break;
+				   case SELECT:
+					   expected = k >= 1 && k <= size ? selectFrom(map, k) : "-1";
+					   actual = tree.select(k);
+					   break;
+				   case MIN_MAX:
+					   expected = map.isEmpty() ? "null null" : map.firstEntry().getValue().get(0) + " " + map.lastEntry().getValue().get(0);
+					   actual = tree.min() + " " + tree.max();
+					   break;
+				   default:
+					   if (k % 4 == 0) {
+						   int removed = 0;
+						   for (List<String> values: map.headMap(k / 4).values()) {
+							   removed += values.size();
+						   }
+						   size -= removed;
+						   map.headMap(k / 4).clear();
+						   expected = String.valueOf(removed);
+						   actual = String.valueOf(tree.removeBelow(k / 4));
+					   }
+					   else {
+						   expected = null;
+						   actual = null;
+						   tree.compact(k % 8);
+						   tree.restructure();
+					   }
+				   }
+				   if (!Objects.equals(expected, actual)) {
+					   return "op " + j + ": expected " + expected + " but got " + actual;
+				   }
+				   if (tree.size() != size) {
+					   return "op " + j + ": size " + tree.size() + " instead of " + size;
+				   }
+				   if (j % VALIDATE_PERIOD == 0 || j == ops.length - 1) {
+					   String violation = tree.findViolation();
+					   if (violation != null) {
+						   return "op " + j + ": " + violation;
+					   }
+				   }
+			   }
+			   List<String> infos = new ArrayList<String>();
+			   for (List<String> values: map.values()) {
+				   infos.addAll(values);
+			   }
+			   if (!Arrays.equals(tree.infoToArray(), infos.toArray(new String[0]))) {
+				   return "infoToArray differs";
+			   }
+			   return null;
+		   }
+		   catch (RuntimeException e) {
+			   return e.toString();
+		   }
+	   }
+	   
+	   /**
+	    * private static String checkTiered(int[][] ops)
+	    *
+	    * as check for a TieredWAVLTree of TIERED_FREEZE_SIZE keys per freeze.
+	    * an insert of a frozen key thaws it and a delete kills it, while the merges
+	    * of the segments run in the background. MIN_MAX checks rank and keysInRange
+	    * instead, and COMPACT freezes the hot tree (and sometimes waits for the merges).
+	    */
+	   private static String checkTiered(int[][] ops) {
+		   TieredWAVLTree tree = new TieredWAVLTree(TIERED_FREEZE_SIZE);
+		   TreeMap<Integer, List<String>> map = new TreeMap<Integer, List<String>>();
+		   try {
+			   for (int j = 0; j < ops.length; j++) {
+				   int k = ops[j][1];
+				   String value = "v" + ops[j][2];
+				   String expected;
+				   String actual;
+				   switch (ops[j][0]) {
+				   case INSERT:
+					   expected = String.valueOf(map.containsKey(k));
+					   actual = String.valueOf(tree.insert(k, value) == -1);
+					   map.put(k, Collections.singletonList(value));
+					   break;
+				   case DELETE:
+					   expected = String.valueOf(!map.containsKey(k));
+					   actual = String.valueOf(tree.delete(k) == -1);
+					   map.remove(k);
+					   break;
+				   case SEARCH:
+					   expected = map.containsKey(k) ? map.get(k).get(0) : null;
+					   actual = tree.search(k);
+					   break;
+				   case SELECT:
+					   expected = k >= 1 && k <= map.size() ? selectFrom(map, k) : "-1";
+					   actual = tree.select(k);
+					   break;
+				   case MIN_MAX:
+					   expected = map.headMap(k).size() + " " + map.subMap(k, true, k + 64, true).keySet();
+					   actual = tree.rank(k) + " " + Arrays.toString(tree.keysInRange(k, k + 64));
+					   break;
+				   default:
+					   expected = null;
+					   actual = null;
+					   tree.freeze();
+					   if (k % 4 == 0) {
+						   tree.awaitMerges();
+					   }
+				   }
+				   if (!Objects.equals(expected, actual)) {
+					   return "op " + j + ": expected " + expected + " but got " + actual;
+				   }
+				   if (tree.size() != map.size()) {
+					   return "op " + j + ": size " + tree.size() + " instead of " + map.size();
+				   }
+			   }
+			   tree.awaitMerges();
+			   String expected = map.keySet().toString();
+			   String actual = Arrays.toString(tree.keysInRange(Integer.MIN_VALUE, Integer.MAX_VALUE));
+			   if (!expected.equals(actual) || tree.size() != map.size()) {
+				   return "keys after the merges differ";
+			   }
+			   return null;
+		   }
+		   catch (RuntimeException e) {
+			   return e.toString();
+		   }
+	   }
+	   
+	   /**
+	    * private static String checkSnapshots(boolean lazyDelete, int[][] ops)
+	    *
+	    * as check, with up to MAX_SNAPSHOTS open snapshots of the tree, each with
+	    * a copy of the items it was taken at. SEARCH looks the key up in the tree
+	    * and in every open snapshot, SELECT takes or closes a snapshot,
+	    * MIN_MAX is a removeBelow and COMPACT a compact or a rebuild. the open
+	    * snapshots are compared with their copies every VALIDATE_PERIOD operations.
+	    * once they are all closed, the next write must drop every version.
+	    */
+	   private static String checkSnapshots(boolean lazyDelete, int[][] ops) {
+		   WAVLTree tree = new WAVLTree();
+		   tree.setLazyDelete(lazyDelete);
+		   TreeMap<Integer, String> map = new TreeMap<Integer, String>();
+		   List<Snapshot> snapshots = new ArrayList<Snapshot>();
+		   List<TreeMap<Integer, String>> copies = new ArrayList<TreeMap<Integer, String>>();
+		   try {
+			   for (int j = 0; j < ops.length; j++) {
+				   int k = ops[j][1];
+				   String value = "v" + ops[j][2];
+				   String expected;
+				   String actual;
+				   switch (ops[j][0]) {
+				   case INSERT:
+					   expected = String.valueOf(map.containsKey(k));
+					   actual = String.valueOf(tree.insert(k, value) == -1);
+					   map.put(k, value);
+					   break;
+				   case DELETE:
+					   expected = String.valueOf(!map.containsKey(k));
+					   actual = String.valueOf(tree.delete(k) == -1);
+					   map.remove(k);
+					   break;
+				   case SEARCH:
+					   StringBuilder expectedSb = new StringBuilder(String.valueOf(map.get(k)));
+					   StringBuilder actualSb = new StringBuilder(String.valueOf(tree.search(k)));
+					   for (int s = 0; s < snapshots.size(); s++) {
+						   expectedSb.append(' ').append(copies.get(s).get(k));
+						   actualSb.append(' ').append(snapshots.get(s).search(k));
+					   }
+					   expected = expectedSb.toString();
+					   actual = actualSb.toString();
+					   break;
+				   case SELECT:
+					   expected = null;
+					   actual = null;
+					   if (snapshots.size() < MAX_SNAPSHOTS && (k % 2 == 0 || snapshots.isEmpty())) {
+						   snapshots.add(tree.snapshot());
+						   copies.add(new TreeMap<Integer, String>(map));
+					   }
+					   else {
+						   snapshots.remove(k % snapshots.size()).close();
+						   copies.remove(k % copies.size());
+					   }
+					   break;
+				   case MIN_MAX:
+					   expected = String.valueOf(map.headMap(k).size());
+					   actual = String.valueOf(tree.removeBelow(k));
+					   map.headMap(k).clear();
+					   break;
+				   default:
+					   expected = null;
+					   actual = null;
+					   if (k % 2 == 0) {
+						   tree.rebuild();
+					   }
+					   else {
+						   tree.compact(k % 8);
+					   }
+				   }
+				   if (!Objects.equals(expected, actual)) {
+					   return "op " + j + ": expected " + expected + " but got " + actual;
+				   }
+				   if (tree.size() != map.size()) {
+					   return "op " + j + ": size " + tree.size() + " instead of " + map.size();
+				   }
+				   if (j % VALIDATE_PERIOD == 0 || j == ops.length - 1) {
+					   String violation = tree.findViolation();
+					   for (int s = 0; s < snapshots.size() && violation == null; s++) {
+						   violation = snapshotDifference(snapshots.get(s), copies.get(s));
+					   }
+					   if (violation != null) {
+						   return "op " + j + ": " + violation;
+					   }
+				   }
+			   }
+			   for (Snapshot snapshot: snapshots) {
+				   snapshot.close();
+			   }
+			   tree.delete(Integer.MIN_VALUE);
+			   if (tree.versionCount() != 0) {
+				   return tree.versionCount() + " versions kept after closing every snapshot";
+			   }
+			   return null;
+		   }
+		   catch (RuntimeException e) {
+			   return e.toString();
+		   }
+	   }
+	   
+	   /**
+	    * private static String checkSharded(int[][] ops)
+	    *
+	    * as check for a ShardedWAVLTree split at SHARD_SPLIT_POINTS that splits
+	    * shards from SHARD_SPLIT_SIZE keys on. MIN_MAX checks keysInRange instead,
+	    * and COMPACT compares keysToArray and infoToArray with the TreeMap.
+	    */
+	   private static String checkSharded(int[][] ops) {
+		   ShardedWAVLTree tree = new ShardedWAVLTree(SHARD_SPLIT_POINTS, SHARD_SPLIT_SIZE);
+		   TreeMap<Integer, List<String>> map = new TreeMap<Integer, List<String>>();
+		   try {
+			   for (int j = 0; j < ops.length; j++) {
+				   int k = ops[j][1];
+				   String value = "v" + ops[j][2];
+				   String expected;
+				   String actual;
+				   switch (ops[j][0]) {
+				   case INSERT:
+					   expected = String.valueOf(map.containsKey(k));
+					   actual = String.valueOf(tree.insert(k, value) == -1);
+					   map.put(k, Collections.singletonList(value));
+					   break;
+				   case DELETE:
+					   expected = String.valueOf(!map.containsKey(k));
+					   actual = String.valueOf(tree.delete(k) == -1);
+					   map.remove(k);
+					   break;
+				   case SEARCH:
+					   expected = map.containsKey(k) ? map.get(k).get(0) : null;
+					   actual = tree.search(k);
+					   break;
+				   case SELECT:
+					   expected = k >= 1 && k <= map.size() ? selectFrom(map, k) : "-1";
+					   actual = tree.select(k);
+					   break;
+				   case MIN_MAX:
+					   expected = map.subMap(k, true, k + 64, true).keySet().toString();
+					   actual = Arrays.toString(tree.keysInRange(k, k + 64));
+					   break;
+				   default:
+					   List<String> infos = new ArrayList<String>();
+					   for (List<String> values: map.values()) {
+						   infos.add(values.get(0));
+					   }
+					   expected = map.keySet() + " " + infos;
+					   actual = Arrays.toString(tree.keysToArray()) + " " + Arrays.toString(tree.infoToArray());
+				   }
+				   if (!Objects.equals(expected, actual)) {
+					   return "op " + j + ": expected " + expected + " but got " + actual;
+				   }
+				   if (tree.size() != map.size()) {
+					   return "op " + j + ": size " + tree.size() + " instead of " + map.size();
+				   }
+				   if (j % VALIDATE_PERIOD == 0 || j == ops.length - 1) {
+					   String violation = tree.findViolation();
+					   if (violation != null) {
+						   return "op " + j + ": " + violation;
+					   }
+				   }
+			   }
+			   return null;
+		   }
+		   catch (RuntimeException e) {
+			   return e.toString();
+		   }
+	   }
+	   
+	   /**
+	    * private static String checkBounded(int[][] ops)
+	    *
+	    * as check for a BoundedWAVLTree of BOUNDED_MAX_SIZE items and BOUNDED_MAX_BYTES,
+	    * against a TreeMap that is expired and trimmed the same way. the clock ticks once
+	    * per operation. an insert has the default ttl of BOUNDED_TTL ticks, a ttl of its own
+	    * or none by its key, and a value of a length by its key, so either bound can bind.
+	    * MIN_MAX checks min and max, COMPACT moves the clock by up to keyRange ticks
+	    * and checks evictExpired. usedBytes is checked after every operation.
+	    */
+	   private static String checkBounded(int[][] ops) {
+		   long[] now = {0};
+		   BoundedWAVLTree tree = new BoundedWAVLTree(BOUNDED_MAX_SIZE, BOUNDED_MAX_BYTES, BOUNDED_TTL);
+		   tree.setClock(() -> now[0]);
+		   TreeMap<Integer, String> map = new TreeMap<Integer, String>();
+		   Map<Integer, Long> expiryTimes = new TreeMap<Integer, Long>();
+		   long[] bytes = {0};
+		   try {
+			   for (int j = 0; j < ops.length; j++) {
+				   int k = ops[j][1];
+				   now[0]++;
+				   String expected;
+				   String actual;
+				   if (ops[j][0] == COMPACT) {
+					   now[0] += k;
+				   }
+				   int expired = expireBounded(map, expiryTimes, bytes, now[0]);
+				   switch (ops[j][0]) {
+				   case INSERT:
+					   String value = "v" + ops[j][2] + "-".repeat(k % 32);
+					   long ttl = k % 8 == 0 ? BoundedWAVLTree.NO_TTL : k % 8 == 1 ? 1 + k % 64 : BOUNDED_TTL;
+					   expected = String.valueOf(map.containsKey(k));
+					   actual = String.valueOf(tree.insert(k, value, ttl) == -1);
+					   bytes[0] += boundedEntryBytes(value) - (map.containsKey(k) ? boundedEntryBytes(map.get(k)) : 0);
+					   map.put(k, value);
+					   if (ttl == BoundedWAVLTree.NO_TTL) {
+						   expiryTimes.remove(k);
+					   }
+					   else {
+						   expiryTimes.put(k, now[0] + ttl);
+					   }
+					   while (map.size() > BOUNDED_MAX_SIZE || bytes[0] > BOUNDED_MAX_BYTES) {
+						   bytes[0] -= boundedEntryBytes(map.firstEntry().getValue());
+						   expiryTimes.remove(map.pollFirstEntry().getKey());
+					   }
+					   break;
+				   case DELETE:
+					   expected = String.valueOf(!map.containsKey(k));
+					   actual = String.valueOf(tree.delete(k) == -1);
+					   if (map.containsKey(k)) {
+						   bytes[0] -= boundedEntryBytes(map.remove(k));
+						   expiryTimes.remove(k);
+					   }
+					   break;
+				   case SEARCH:
+					   expected = map.get(k);
+					   actual = tree.search(k);
+					   break;
+				   case SELECT:
+					   expected = "-1";
+					   for (String info: map.values()) {
+						   if (--k == 0) {
+							   expected = info;
+						   }
+					   }
+					   actual = tree.select(ops[j][1]);
+					   break;
+				   case MIN_MAX:
+					   expected = map.isEmpty() ? "null null" : map.firstEntry().getValue() + " " + map.lastEntry().getValue();
+					   actual = tree.min() + " " + tree.max();
+					   break;
+				   default:
+					   expected = String.valueOf(expired);
+					   actual = String.valueOf(tree.evictExpired());
+				   }
+				   if (!Objects.equals(expected, actual)) {
+					   return "op " + j + ": expected " + expected + " but got " + actual;
+				   }
+				   if (tree.size() != map.size() || tree.usedBytes() != bytes[0]) {
+					   return "op " + j + ": size " + tree.size() + " and " + tree.usedBytes() + " bytes instead of "
+							   + map.size() + " and " + bytes[0];
+				   }
+				   if (j % VALIDATE_PERIOD == 0 || j == ops.length - 1) {
+					   String violation = tree.tree.findViolation();
+					   if (violation != null) {
+						   return "op " + j + ": " + violation;
+					   }
+				   }
+			   }
+			   return null;
+		   }
+		   catch (RuntimeException e) {
+			   return e.toString();
+		   }
+	   }
+	   
+	   /* removes the items of the model that expired by now and returns their number */
+	   private static int expireBounded(TreeMap<Integer, String> map, Map<Integer, Long> expiryTimes, long[] bytes, long now) {
+		   int expired = 0;
+		   for (Iterator<Map.Entry<Integer, Long>> it = expiryTimes.entrySet().iterator(); it.hasNext(); ) {
+			   Map.Entry<Integer, Long> entry = it.next();
+			   if (entry.getValue() <= now) {
+				   bytes[0] -= boundedEntryBytes(map.remove(entry.getKey()));
+				   it.remove();
+				   expired++;
+			   }
+		   }
+		   return expired;
+	   }
+	   
+	   private static long boundedEntryBytes(String info) {
+		   return MemoryStats.NODE_BYTES + MemoryStats.stringBytes(info);
+	   }
+	   
+	   private static String snapshotDifference(Snapshot snapshot, TreeMap<Integer, String> copy) {
+		   int[] keys = new int[copy.size()];
+		   int j = 0;
+		   for (int key: copy.keySet()) {
+			   keys[j++] = key;
+		   }
+		   if (snapshot.size() != copy.size()) {
+			   return "snapshot " + snapshot.getEpoch() + " size " + snapshot.size() + " instead of " + copy.size();
+		   }
+		   if (!Arrays.equals(snapshot.keysToArray(), keys)
+				   || !Arrays.equals(snapshot.infoToArray(), copy.values().toArray(new String[0]))) {
+			   return "snapshot " + snapshot.getEpoch() + " changed";
+		   }
+		   for (int i = 1; i <= copy.size(); i += 1 + copy.size() / 8) {
+			   if (!copy.get(keys[i - 1]).equals(snapshot.select(i))) {
+				   return "snapshot " + snapshot.getEpoch() + " select(" + i + ") changed";
+			   }
+		   }
+		   return null;
+	   }
+	   
+	   private static String selectFrom(TreeMap<Integer, List<String>> map, int i) {
+		   for (Map.Entry<Integer, List<String>> entry: map.entrySet()) {
+			   if (i <= entry.getValue().size()) {
+				   return entry.getValue().get(i - 1);
+			   }
+			   i -= entry.getValue().size();
+		   }
 		   return "-1";
 	   }
-	   return selectRec(i-1, this.getRoot());
+	   
+	   /**
+	    * static int[][] shrink(Engine engine, int[][] ops)
+	    *
+	    * removes chunks of the failing trace ops, from half the trace down to
+	    * single operations, as long as the rest still fails.
+	    */
+	   static int[][] shrink(Engine engine, int[][] ops) {
+		   int chunk = ops.length / 2;
+		   while (chunk >= 1) {
+			   boolean removed = false;
+			   for (int start = 0; start + chunk <= ops.length; ) {
+				   int[][] candidate = new int[ops.length - chunk][];
+				   System.arraycopy(ops, 0, candidate, 0, start);
+				   System.arraycopy(ops, start + chunk, candidate, start, ops.length - start - chunk);
+				   if (check(engine, candidate) != null) {
+					   ops = candidate;
+					   removed = true;
+				   }
+				   else {
+					   start += chunk;
+				   }
+			   }
+			   if (!removed) {
+				   chunk /= 2;
+			   }
+		   }
+		   return ops;
+	   }
+	   
+	   /**
+	    * public static void main(String[] args)
+	    *
+	    * args: [tracesPerEngine [opsPerTrace [keyRange [seed]]]]
+	    * fuzzes all the engines on all the cores, exits with status 1 on a failure.
+	    */
+	   public static void main(String[] args) throws Exception {
+		   int traces = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+		   int opsPerTrace = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+		   int keyRange = args.length > 2 ? Integer.parseInt(args[2]) : 2048;
+		   long seed = args.length > 3 ? Long.parseLong(args[3]) : System.nanoTime();
+		   int threads = Runtime.getRuntime().availableProcessors();
+		   List<Failure> failures = run(Engine.values(), threads, traces, opsPerTrace, keyRange, seed);
+		   for (Failure failure: failures) {
+			   System.out.println(failure);
+		   }
+		   long total = (long) traces * opsPerTrace * Engine.values().length;
+		   System.out.println(total + " ops, seed " + seed + ", " + failures.size() + " failing traces");
+		   String edgeCase = checkEdgeCases();
+		   if (edgeCase != null) {
+			   System.out.println("edge case: " + edgeCase);
+		   }
+		   if (!failures.isEmpty() || edgeCase != null) {
+			   System.exit(1);
+		   }
+	   }
+	   
+	   /**
+	    * static String checkEdgeCases()
+	    *
+	    * fixed scenarios that random traces do not reach.
+	    * Returns a description of the first one that fails, or null.
+	    */
+	   static String checkEdgeCases() {
+		   /* increasing keys into two shards: the shard they go to must keep being split*/
+		   ShardedWAVLTree sharded = new ShardedWAVLTree(2);
+		   for (int k = 0; k < 100000; k++) {
+			   sharded.insert(k, null);
+		   }
+		   int[] sizes = sharded.shardSizes();
+		   if (Math.max(sizes[0], sizes[1]) > 3 * Math.min(sizes[0], sizes[1])) {
+			   return "2 shards of " + Arrays.toString(sizes) + " items after 100000 increasing keys";
+		   }
+		   
+		   /* a ttl close to NO_TTL must not wrap around into the past*/
+		   long[] clock = {1000};
+		   BoundedWAVLTree bounded = new BoundedWAVLTree(Integer.MAX_VALUE, Long.MAX_VALUE, BoundedWAVLTree.NO_TTL);
+		   bounded.setClock(() -> clock[0]);
+		   bounded.insert(1, "x", Long.MAX_VALUE - 1);
+		   clock[0] = Long.MAX_VALUE - 1;
+		   if (!"x".equals(bounded.search(1))) {
+			   return "an item with ttl Long.MAX_VALUE - 1 expired";
+		   }
+		   return null;
+	   }
    }
-
-   public static String selectRec (int i, IWAVLNode x) {
-	   int r = x.getLeft().getSubtreeSize();
-	   if (i==r) {
-		   return x.getValue();
+   
+   /**
+    * public static final class TraceRecorder
+    *
+    * Records the insert / delete / search / select calls on a tree (see
+    * WAVLTree.setTraceRecorder) as a compact binary trace for TraceReplay.
+    * a trace is a header (magic, format version, flags) and a record per call:
+    *   a byte with the operation (bit 2 set for an insert of a null value),
+    *   a varint of the nanoseconds since the previous call,
+    *   a zigzag varint of the key minus the previous key (the index for select),
+    *   for an insert the varint length of the value and, if values are recorded, its UTF-8 bytes
+    *   (the length is in bytes then, in chars otherwise).
+    * keys that grow with time make a record 3-4 bytes without values.
+    * like the tree, not thread safe. stream errors are thrown as UncheckedIOException.
+    */
+   public static final class TraceRecorder implements Closeable {
+	   static final int MAGIC = 0x57545243;
+	   static final int FORMAT_VERSION = 1;
+	   static final int INSERT = 0;
+	   static final int DELETE = 1;
+	   static final int SEARCH = 2;
+	   static final int SELECT = 3;
+	   static final int NULL_VALUE = 4;
+	   static final int VALUES_FLAG = 1;
+	   
+	   private final OutputStream out;
+	   private final boolean values;
+	   private long lastTime;
+	   private int lastKey;
+	   private long records;
+	   
+	   /**
+	    * public TraceRecorder(OutputStream out, boolean values)
+	    *
+	    * writes the trace to out, with the inserted values if values is true
+	    * (only their lengths otherwise).
+	    */
+	   public TraceRecorder(OutputStream out, boolean values) throws IOException {
+		   this.out = new BufferedOutputStream(out, 1 << 16);
+		   this.values = values;
+		   for (int shift = 24; shift >= 0; shift -= 8) {
+			   this.out.write(MAGIC >>> shift);
+		   }
+		   this.out.write(FORMAT_VERSION);
+		   this.out.write(values ? VALUES_FLAG : 0);
+		   this.lastTime = System.nanoTime();
+		   this.lastKey = 0;
+		   this.records = 0;
 	   }
-	   else if (i<r) {
-		   return selectRec(i, x.getLeft());
+	   
+	   void record(int op, int key, String value) {
+		   long now = System.nanoTime();
+		   try {
+			   this.out.write(op == INSERT && value == null ? op | NULL_VALUE : op);
+			   writeVarLong(this.out, now - this.lastTime);
+			   int delta = key - this.lastKey;
+			   writeVarLong(this.out, ((delta << 1) ^ (delta >> 31)) & 0xFFFFFFFFL);
+			   if (op == INSERT && value != null) {
+				   if (this.values) {
+					   byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+					   writeVarLong(this.out, bytes.length);
+					   this.out.write(bytes);
+				   }
+				   else {
+					   writeVarLong(this.out, value.length());
+				   }
+			   }
+		   }
+		   catch (IOException e) {
+			   throw new UncheckedIOException(e);
+		   }
+		   this.lastTime = now;
+		   this.lastKey = key;
+		   this.records++;
 	   }
-	   else {
-		   return selectRec (i - r - 1,x.getRight());
+	   
+	   private static void writeVarLong(OutputStream out, long value) throws IOException {
+		   while ((value & ~0x7FL) != 0) {
+			   out.write((int) (value & 0x7F) | 0x80);
+			   value >>>= 7;
+		   }
+		   out.write((int) value);
+	   }
+	   
+	   public long recordCount() {
+		   return this.records;
+	   }
+	   
+	   public void flush() throws IOException {
+		   this.out.flush();
+	   }
+	   
+	   @Override
+	   public void close() throws IOException {
+		   this.out.close();
+	   }
+   }
+   
+   /**
+    * public static final class TraceReplay
+    *
+    * Replays a trace written by TraceRecorder on a new tree of any engine, to
+    * compare engines and builds on recorded traffic without the live system.
+    * the trace is decoded into arrays first (values included) so the replay does
+    * no I/O or decoding. every call is timed with System.nanoTime.
+    * a paced replay issues every call at its recorded offset from the start and
+    * measures its latency from that intended time, so calls held up by a slow one
+    * are charged for the wait (no coordinated omission). an unpaced one runs flat out.
+    */
+   public static final class TraceReplay {
+	   private static final double[] PERCENTILES = {50, 90, 99, 99.9, 100};
+	   private static final String[] OP_NAMES = {"insert", "delete", "search", "select"};
+	   
+	   private final byte[] ops;
+	   private final int[] keys;
+	   /* nanoseconds from the first call */
+	   private final long[] times;
+	   /* the inserted values, null for the other calls */
+	   private final String[] values;
+	   private final int[] opCounts;
+	   
+	   private TraceReplay(byte[] ops, int[] keys, long[] times, String[] values) {
+		   this.ops = ops;
+		   this.keys = keys;
+		   this.times = times;
+		   this.values = values;
+		   this.opCounts = new int[OP_NAMES.length];
+		   for (byte op: ops) {
+			   this.opCounts[op]++;
+		   }
+	   }
+	   
+	   /**
+	    * public static TraceReplay load(Path file)
+	    *
+	    * reads a whole trace. values that were not recorded are replaced by
+	    * strings of their recorded length.
+	    * Complexity O(trace length)
+	    */
+	   public static TraceReplay load(Path file) throws IOException {
+		   try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+			   return load(in);
+		   }
+	   }
+	   
+	   public static TraceReplay load(InputStream in) throws IOException {
+		   int magic = 0;
+		   for (int j = 0; j < 4; j++) {
+			   magic = (magic << 8) | readByte(in);
+		   }
+		   if (magic != TraceRecorder.MAGIC || readByte(in) != TraceRecorder.FORMAT_VERSION) {
+			   throw new IOException("not a WAVL trace");
+		   }
+		   boolean withValues = (readByte(in) & TraceRecorder.VALUES_FLAG) != 0;
+		   
+		   int capacity = 1024;
+		   byte[] ops = new byte[capacity];
+		   int[] keys = new int[capacity];
+		   long[] times = new long[capacity];
+		   String[] values = new String[capacity];
+		   int n = 0;
+		   long time = 0;
+		   int key = 0;
+		   int first;
+		   while ((first = in.read()) != -1) {
+			   if (n == capacity) {
+				   capacity *= 2;
+				   ops = Arrays.copyOf(ops, capacity);
+				   keys = Arrays.copyOf(keys, capacity);
+				   times = Arrays.copyOf(times, capacity);
+				   values = Arrays.copyOf(values, capacity);
+			   }
+			   int op = first & ~TraceRecorder.NULL_VALUE;
+			   if (op > TraceRecorder.SELECT) {
+				   throw new IOException("bad operation " + first + " in record " + n);
+			   }
+			   long delta = readVarLong(in);
+			   /* the first delta is from the start of the recording, the replay starts at the first call*/
+			   time += n == 0 ? 0 : delta;
+			   int zigzag = (int) readVarLong(in);
+			   key += (zigzag >>> 1) ^ -(zigzag & 1);
+			   ops[n] = (byte) op;
+			   keys[n] = key;
+			   times[n] = time;
+			   if (op == TraceRecorder.INSERT && (first & TraceRecorder.NULL_VALUE) == 0) {
+				   int length = (int) readVarLong(in);
+				   if (withValues) {
+					   byte[] bytes = in.readNBytes(length);
+					   if (bytes.length != length) {
+						   throw new EOFException("truncated value in record " + n);
+					   }
+					   values[n] = new String(bytes, StandardCharsets.UTF_8);
+				   }
+				   else {
+					   values[n] = "x".repeat(length);
+				   }
+			   }
+			   n++;
+		   }
+		   return new TraceReplay(Arrays.copyOf(ops, n), Arrays.copyOf(keys, n), Arrays.copyOf(times, n), Arrays.copyOf(values, n));
+	   }
+	   
+	   private static int readByte(InputStream in) throws IOException {
+		   int b = in.read();
+		   if (b == -1) {
+			   throw new EOFException("truncated trace");
+		   }
+		   return b;
+	   }
+	   
+	   private static long readVarLong(InputStream in) throws IOException {
+		   long value = 0;
+		   for (int shift = 0; shift < 64; shift += 7) {
+			   int b = readByte(in);
+			   value |= (long) (b & 0x7F) << shift;
+			   if ((b & 0x80) == 0) {
+				   return value;
+			   }
+		   }
+		   throw new IOException("bad varint");
+	   }
+	   
+	   public int length() {
+		   return this.ops.length;
 	   }
 	   
+	   /* nanoseconds from the first recorded call to the last */
+	   public long recordedNanos() {
+		   return this.times.length == 0 ? 0 : this.times[this.times.length - 1];
+	   }
+	   
+	   /**
+	    * public Report run(DifferentialFuzzer.Engine engine, boolean paced)
+	    *
+	    * replays the trace on a new tree of engine (one that isTree) and reports on it.
+	    * Complexity O(trace length * log n)
+	    */
+	   public Report run(DifferentialFuzzer.Engine engine, boolean paced) {
+		   if (!engine.isTree()) {
+			   throw new IllegalArgumentException(engine + " cannot replay a trace");
+		   }
+		   WAVLTree tree = engine.newTree();
+		   long[][] latencies = new long[OP_NAMES.length][];
+		   for (int op = 0; op < OP_NAMES.length; op++) {
+			   latencies[op] = new long[this.opCounts[op]];
+		   }
+		   int[] filled = new int[OP_NAMES.length];
+		   long rebalances = 0;
+		   long failedUpdates = 0;
+		   long found = 0;
+		   
+		   long gcCount = 0;
+		   long gcMillis = 0;
+		   for (GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) {
+			   gcCount -= Math.max(gc.getCollectionCount(), 0);
+			   gcMillis -= Math.max(gc.getCollectionTime(), 0);
+		   }
+		   long allocated = -allocatedBytes();
+		   long start = System.nanoTime();
+		   for (int j = 0; j < this.ops.length; j++) {
+			   long begin = System.nanoTime();
+			   long intended = begin;
+			   if (paced) {
+				   intended = start + this.times[j];
+				   while (begin < intended) {
+					   /* parking overshoots by tens of microseconds, spin the rest*/
+					   if (intended - begin > 1_000_000) {
+						   LockSupport.parkNanos(intended - begin - 500_000);
+					   }
+					   else {
+						   Thread.onSpinWait();
+					   }
+					   begin = System.nanoTime();
+				   }
+			   }
+			   int op = this.ops[j];
+			   int key = this.keys[j];
+			   int res = 0;
+			   if (op == TraceRecorder.INSERT) {
+				   res = engine.insert(tree, key, this.values[j]);
+			   }
+			   else if (op == TraceRecorder.DELETE) {
+				   res = engine.delete(tree, key);
+			   }
+			   else if (op == TraceRecorder.SEARCH) {
+				   found += tree.search(key) != null ? 1 : 0;
+			   }
+			   else {
+				   found += "-1".equals(tree.select(key)) ? 0 : 1;
+			   }
+			   long end = System.nanoTime();
+			   latencies[op][filled[op]++] = end - (paced ? intended : begin);
+			   if (res < 0) {
+				   failedUpdates++;
+			   }
+			   else {
+				   rebalances += res;
+			   }
+		   }
+		   long elapsed = System.nanoTime() - start;
+		   allocated += allocatedBytes();
+		   for (GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) {
+			   gcCount += Math.max(gc.getCollectionCount(), 0);
+			   gcMillis += Math.max(gc.getCollectionTime(), 0);
+		   }
+		   
+		   long[][] percentiles = new long[OP_NAMES.length][PERCENTILES.length];
+		   for (int op = 0; op < OP_NAMES.length; op++) {
+			   long[] sorted = latencies[op];
+			   Arrays.sort(sorted);
+			   for (int p = 0; p < PERCENTILES.length && sorted.length > 0; p++) {
+				   int index = (int) Math.ceil(PERCENTILES[p] / 100 * sorted.length) - 1;
+				   percentiles[op][p] = sorted[Math.max(index, 0)];
+			   }
+		   }
+		   return new Report(engine, paced, this.ops.length, elapsed, this.opCounts.clone(), percentiles,
+				   rebalances, failedUpdates, found, gcCount, gcMillis, allocated, tree.size());
+	   }
+	   
+	   /* bytes allocated by this thread so far, or 0 if the JVM does not tell */
+	   private static long allocatedBytes() {
+		   java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		   if (threads instanceof com.sun.management.ThreadMXBean) {
+			   return ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes();
+		   }
+		   return 0;
+	   }
+	   
+	   /* the result of one replay, latencies in nanoseconds */
+	   public static final class Report {
+		   public final DifferentialFuzzer.Engine engine;
+		   public final boolean paced;
+		   public final int operations;
+		   public final long elapsedNanos;
+		   public final double operationsPerSecond;
+		   /* calls per operation, indexed insert, delete, search, select */
+		   public final int[] counts;
+		   /* latencies[operation] at the 50, 90, 99, 99.9 and 100th percentile */
+		   public final long[][] percentiles;
+		   /* the sum of the insert and delete return values that were not -1 */
+		   public final long rebalances;
+		   /* inserts of an existing key and deletes of a missing one */
+		   public final long failedUpdates;
+		   /* searches and selects that found an item */
+		   public final long found;
+		   public final long gcCount;
+		   public final long gcMillis;
+		   public final long allocatedBytes;
+		   public final int finalSize;
+		   
+		   Report(DifferentialFuzzer.Engine engine, boolean paced, int operations, long elapsedNanos, int[] counts,
+				   long[][] percentiles, long rebalances, long failedUpdates, long found,
+				   long gcCount, long gcMillis, long allocatedBytes, int finalSize) {
+			   this.engine = engine;
+			   this.paced = paced;
+			   this.operations = operations;
+			   this.elapsedNanos = elapsedNanos;
+			   this.operationsPerSecond = elapsedNanos == 0 ? 0 : operations * 1e9 / elapsedNanos;
+			   this.counts = counts;
+			   this.percentiles = percentiles;
+			   this.rebalances = rebalances;
+			   this.failedUpdates = failedUpdates;
+			   this.found = found;
+			   this.gcCount = gcCount;
+			   this.gcMillis = gcMillis;
+			   this.allocatedBytes = allocatedBytes;
+			   this.finalSize = finalSize;
+		   }
+		   
+		   @Override
+		   public String toString() {
+			   StringBuilder sb = new StringBuilder();
+			   sb.append(this.engine).append(this.paced ? " paced" : " unpaced").append(": ")
+					   .append(this.operations).append(" ops in ").append(this.elapsedNanos / 1_000_000).append(" ms, ")
+					   .append((long) this.operationsPerSecond).append(" ops/s, ")
+					   .append(this.rebalances).append(" rebalances, ").append(this.failedUpdates).append(" failed updates, ")
+					   .append(this.found).append(" found, final size ").append(this.finalSize).append('\n');
+			   sb.append("  gc: ").append(this.gcCount).append(" collections, ").append(this.gcMillis).append(" ms, ")
+					   .append(this.allocatedBytes).append(" bytes allocated\n");
+			   for (int op = 0; op < OP_NAMES.length; op++) {
+				   if (this.counts[op] == 0) {
+					   continue;
+				   }
+				   sb.append("  ").append(OP_NAMES[op]).append(" x").append(this.counts[op]).append(" ns:");
+				   for (int p = 0; p < PERCENTILES.length; p++) {
+					   sb.append(" p").append(PERCENTILES[p] == 100 ? "max" : PERCENTILES[p] % 1 == 0 ? String.valueOf((int) PERCENTILES[p]) : String.valueOf(PERCENTILES[p]))
+							   .append('=').append(this.percentiles[op][p]);
+				   }
+				   sb.append('\n');
+			   }
+			   return sb.toString();
+		   }
+	   }
+	   
+	   /**
+	    * public static void main(String[] args)
+	    *
+	    * args: traceFile [paced|unpaced [warmups [engine...]]]
+	    * replays the trace warmups times untimed, then once timed, on each engine (all the tree engines by default)
+	    * and prints the reports.
+	    */
+	   public static void main(String[] args) throws Exception {
+		   TraceReplay replay = load(Paths.get(args[0]));
+		   boolean paced = args.length > 1 && args[1].equals("paced");
+		   int warmups = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		   List<DifferentialFuzzer.Engine> trees = new ArrayList<DifferentialFuzzer.Engine>();
+		   for (DifferentialFuzzer.Engine engine: DifferentialFuzzer.Engine.values()) {
+			   if (engine.isTree()) {
+				   trees.add(engine);
+			   }
+		   }
+		   DifferentialFuzzer.Engine[] engines = trees.toArray(new DifferentialFuzzer.Engine[0]);
+		   if (args.length > 3) {
+			   engines = new DifferentialFuzzer.Engine[args.length - 3];
+			   for (int j = 3; j < args.length; j++) {
+				   engines[j - 3] = DifferentialFuzzer.Engine.valueOf(args[j]);
+			   }
+		   }
+		   System.out.println(replay.length() + " calls over " + replay.recordedNanos() / 1_000_000 + " recorded ms");
+		   for (DifferentialFuzzer.Engine engine: engines) {
+			   for (int j = 0; j < warmups; j++) {
+				   replay.run(engine, false);
+			   }
+			   System.out.print(replay.run(engine, paced));
+		   }
+	   }
    }
    
    /**
@@ -816,39 +6059,56 @@ private void delDoubleRotationRL (WAVLNode z) {
    * another file.
    * This class can and must be modified.
    * (It must implement IWAVLNode)
+   * the info of a real node is kept by its class: a PlainNode holds the String,
+   * a CodedNode (trees with a value dictionary) only its code. the shared
+   * virtual node is a bare WAVLNode, its info is null.
    */
   public class WAVLNode implements IWAVLNode{
 	  /*
 	   * each IWAVLNode has:
 	   * key (an Integer). virtual nodes key = -1
-	   * info - String of information. virtual nodes info = null
 	   * left and right pointers 
 	   * subTreeSize - how many real IWAVLNodes are in this node's subTree (including this node)
 	   * isReal - is the node real or virtual ?
 	   * parent 
 	   * rank - default 0 if leaf, -1 if external (unReal)
+	   * isDeleted - is the node a tombstone (lazy delete mode)? tombstones are not counted in subTreeSize
+	   * count - number of occurrences of the key (multiset mode), 1 otherwise
+	   * bucket - infos of the occurrences after the first (multiset mode), null if count == 1
+	   * stamp - the epoch from which the current field values are valid
+	   * history - older field values kept for open snapshots, newest first
+	   * hits - access counter of adaptive mode, halved on every restructure
+	   * queued - is the key of the node in pendingTombstones (lazy delete mode)? writer only, not versioned
 	   */
         private int key;
-        private String info;
         private WAVLNode left;
         private WAVLNode right;
         private int subtreeSize;
-        private boolean isReal;
+        private final boolean isReal;
         private WAVLNode parent;
         private int rank;
+        private boolean isDeleted;
+        private boolean queued;
+        private int count;
+        private String[] bucket;
+        private volatile long stamp;
+        private volatile Version history;
+        private int hits;
         
         /*main constructor*/
-        public WAVLNode (int key,String info,WAVLNode left, WAVLNode right, boolean isReal, WAVLNode parent){
+        public WAVLNode (int key,WAVLNode left, WAVLNode right, boolean isReal, WAVLNode parent){
             this.key = key;
-            this.info = info;
             this.left = left;
             this.right = right;
             this.subtreeSize = 0;
             this.isReal = isReal;
             this.parent = parent;
+            this.stamp = WAVLTree.this.epoch;
             
             if (isReal) {
+            	WAVLTree.this.nodeCount++;
             	this.rank=0;
+            	this.count=1;
 	            if (left != null) {
 	            	this.subtreeSize += left.subtreeSize  ;
 	            }
@@ -863,43 +6123,64 @@ private void delDoubleRotationRL (WAVLNode z) {
         
         /* construct new unreal WAVLNode*/
         public WAVLNode () {
-        	this(-1,null,null,null,false,null);
+        	this(-1,null,null,false,null);
         }
-        /* construct new real WAVLNode
+        /* construct new real WAVLNode, without info - see newNode
          * each new REAL node children are 2 unreal nodes
          */
-        public WAVLNode (int key, String info) {
-        	this (key,info,new WAVLNode(),new WAVLNode(),true,null);
+        WAVLNode (int key) {
+        	this (key,WAVLTree.this.virtualNode,WAVLTree.this.virtualNode,true,null);
         }
         
         /**
          * public int getKey()
          *
-         * Returns the node's key, if !this.isReal return -1
+         * Returns the node's key, -1 for virtual nodes (they are built with key -1)
          * Complexity O(1)
          */
 		public int getKey()
 		{
-			if (this.isReal) {
-				return this.key;
-			}
-			return -1;
+			return this.key;
 		}
 
 		/**
          * public String getValue()
          *
-         * Returns the node's info, if !this.isReal return null
-         * Complexity O(1)
+         * Returns the node's info, null for virtual nodes (their info is null, their code -1)
+         * with a value dictionary the info is decoded from its code
+         * Complexity O(1), O(length of info) with a value dictionary
          */
 		public String getValue()
 		{
-			if (this.isReal) {
-				return this.info;
+			if (WAVLTree.this.dictionary != null) {
+				return WAVLTree.this.dictionary.decode(this.infoCode());
 			}
+			return this.info();
+		}
+		
+		/* the info as stored, null for a virtual node or with a value dictionary */
+		String info() {
 			return null;
 		}
 		
+		/* the dictionary code of the info, -1 for a virtual node or without a value dictionary */
+		int infoCode() {
+			return -1;
+		}
+		
+		/* the value dictionary of the tree, null if it has none */
+		ValueDictionary dictionary() {
+			return WAVLTree.this.dictionary;
+		}
+		
+		/* stores info without saving a version. a virtual node keeps none */
+		void storeValue(String info) {
+		}
+		
+		/* stores the info of other, a node of the same class, without decoding it */
+		void copyValue(WAVLNode other) {
+		}
+		
 		/**
          * public void setValue(String info)
          *
@@ -908,46 +6189,48 @@ private void delDoubleRotationRL (WAVLNode z) {
          */
 		public void setValue(String info) 
 		{
-			this.info = info;
+			this.saveVersion();
+			this.storeValue(info);
 		}
 		
 		/**
 		 * public WAVLNode getLeft()
 		 * get the node's left son
-		 * @return this.left, if (!this.isReal) return null
+		 * @return this.left, null for virtual nodes (they are built without children)
 		 * Complexity O(1)
 		 */
 		public WAVLNode getLeft()
 		{
-			if(this.isReal){
-                return this.left; 
-            }
-            return null;
+			return this.left;
 		}
 		
+		/* the shared virtual node gets no parent - nothing reads the parent of a virtual node*/
 		public void setLeft(WAVLNode leftChild) 
 		{	if (leftChild!=null) {
+				this.saveVersion();
 				this.left = leftChild;
-				leftChild.setParent(this);
+				if (leftChild.isReal) {
+					leftChild.parent = this;
+				}
 			}
 		}
 		
 		/**
-		 *$ret IWAVLNode if real Node, else $ret null
+		 *$ret the right child if real Node, else $ret null
 		 */
 		public WAVLNode getRight()
 		{
-			if(this.isReal){
-                return this.right; 
-            }
-            return null;
+			return this.right;
 		}
 		
 		public void setRight(WAVLNode rightChild) 
 		{
 			if (rightChild!=null) {
+				this.saveVersion();
 				this.right = rightChild;
-				rightChild.setParent(this);
+				if (rightChild.isReal) {
+					rightChild.parent = this;
+				}
 			}
 		}
 		
@@ -989,10 +6272,7 @@ private void delDoubleRotationRL (WAVLNode z) {
 		 */
 		public boolean isLeaf() 
 		{
-			if (this.isRealNode() && !this.getLeft().isRealNode() && !this.getRight().isRealNode()) {
-				return true;
-			}
-			return false;
+			return this.isReal && !this.left.isReal && !this.right.isReal;
 		}
 		/**
 		 * virtual nodes subtree = 0 
@@ -1004,17 +6284,233 @@ private void delDoubleRotationRL (WAVLNode z) {
 		}
 		
 		public void setSubtreeSize(int size) {
+			this.saveVersion();
 			this.subtreeSize = size;
 		}
 		
 		//return difference of ranks with a lower rank node 
 		public int rankDif(WAVLNode s) {
-			return this.getRank() - s.getRank();
+			return this.rank - s.rank;
+		}
+		
+		public boolean isDeleted() {
+			return this.isDeleted;
+		}
+		
+		public int getHits() {
+			return this.hits;
+		}
+		
+		public void countHit() {
+			if (this.hits < Integer.MAX_VALUE) {
+				this.hits++;
+			}
+		}
+		
+		public void halveHits() {
+			this.hits >>>= 1;
+		}
+		
+		public void setDeleted(boolean isDeleted) {
+			this.saveVersion();
+			this.isDeleted = isDeleted;
+		}
+		
+		// number of occurrences counted in subtree sizes, 0 for tombstones and virtual nodes
+		public int liveCount() {
+			if (this.isReal && !this.isDeleted) {
+				return this.count;
+			}
+			return 0;
+		}
+		
+		public int getCount() {
+			return this.count;
+		}
+		
+		/**
+		 * public String getOccurrenceValue(int j)
+		 * Returns the info of the j'th occurrence of the key (0 based, 0 is getValue())
+		 * Complexity O(1)
+		 */
+		public String getOccurrenceValue(int j) {
+			if (j == 0) {
+				return this.getValue();
+			}
+			return this.bucket[j - 1];
+		}
+		
+		/**
+		 * public void addOccurrence(String info)
+		 * adds an occurrence of the key with the given info (multiset mode).
+		 * Complexity O(1) amortized
+		 */
+		public void addOccurrence(String info) {
+			this.saveVersion();
+			this.writableBucket(this.count);
+			this.bucket[this.count - 1] = info;
+			this.count++;
+		}
+		
+		/**
+		 * public void removeOccurrence()
+		 * removes the last occurrence of the key, precondition: count > 1
+		 * Complexity O(1)
+		 */
+		public void removeOccurrence() {
+			this.saveVersion();
+			this.count--;
+			if (this.count == 1) {
+				this.bucket = null;
+				return;
+			}
+			this.writableBucket(this.count - 1);
+			this.bucket[this.count - 1] = null;
+		}
+		
+		/* makes bucket an array of at least capacity slots that no snapshot version shares */
+		private void writableBucket(int capacity) {
+			if (this.bucket == null) {
+				this.bucket = new String[Math.max(capacity, 2)];
+			}
+			else if (this.bucket.length < capacity) {
+				this.bucket = Arrays.copyOf(this.bucket, Math.max(capacity, 2 * this.bucket.length));
+			}
+			else if (this.history != null) {
+				this.bucket = this.bucket.clone();
+			}
 		}
 		
 		public void replace(WAVLNode other) {
-			this.setValue(other.getValue());
+			this.saveVersion();
+			this.copyValue(other);
 			this.key = other.getKey();
+			this.isDeleted = other.isDeleted();
+			this.count = other.count;
+			this.queued = other.queued;
+			/* other's versions may still share its bucket, so never alias it*/
+			this.bucket = other.bucket == null ? null : other.bucket.clone();
+		}
+		
+		/**
+		 * private void saveVersion()
+		 * called before every write to the fields a snapshot reads.
+		 * if an open snapshot can see the current values, keeps them as a version
+		 * and restamps the node with the current epoch.
+		 * the check is kept apart from keepVersion so it is small enough to inline into every setter.
+		 * Complexity O(1)
+		 */
+		private void saveVersion() {
+			if (WAVLTree.this.latestPinned >= this.stamp) {
+				this.keepVersion();
+			}
+		}
+		
+		private void keepVersion() {
+			this.history = new Version(this.stamp, this, this.history);
+			this.stamp = WAVLTree.this.epoch;
+			/* the field writes that follow must not be seen before the new stamp */
+			VarHandle.storeStoreFence();
+			if (this.history.next == null) {
+				WAVLTree.this.versionedNodes.add(this);
+			}
+		}
+		
+		/**
+		 * Version versionAt(long epoch)
+		 * returns the field values of the node at the given epoch.
+		 * the current fields are read optimistically and validated against
+		 * the stamp, like an optimistic read of a StampedLock.
+		 * Complexity O(number of versions)
+		 */
+		Version versionAt(long epoch) {
+			long s = this.stamp;
+			if (s <= epoch) {
+				Version current = new Version(s, this, null);
+				VarHandle.loadLoadFence();
+				if (this.stamp == s) {
+					return current;
+				}
+			}
+			Version v = this.history;
+			while (v != null && v.stamp > epoch) {
+				v = v.next;
+			}
+			return v;
+		}
+		
+		/* drops the versions that no snapshot at epoch >= oldest needs. oldest == -1 drops all */
+		private void trimHistory(long oldest) {
+			if (oldest == -1 || this.stamp <= oldest) {
+				this.history = null;
+				return;
+			}
+			Version v = this.history;
+			while (v != null && v.stamp > oldest) {
+				v = v.next;
+			}
+			if (v != null) {
+				v.next = null;
+			}
 		}
   }
+  
+  /**
+   * static class PlainNode
+   *
+   * a real node of a tree without a value dictionary, it holds its info.
+   */
+  static final class PlainNode extends WAVLNode {
+	  private String info;
+	  
+	  PlainNode(WAVLTree tree, int key, String info) {
+		  tree.super(key);
+		  this.info = info;
+	  }
+	  
+	  @Override
+	  String info() {
+		  return this.info;
+	  }
+	  
+	  @Override
+	  void storeValue(String info) {
+		  this.info = info;
+	  }
+	  
+	  @Override
+	  void copyValue(WAVLNode other) {
+		  this.info = other.info();
+	  }
+  }
+  
+  /**
+   * static class CodedNode
+   *
+   * a real node of a tree with a value dictionary, it holds the code of its info
+   * and no String reference.
+   */
+  static final class CodedNode extends WAVLNode {
+	  private int infoCode;
+	  
+	  CodedNode(WAVLTree tree, int key, String info) {
+		  tree.super(key);
+		  this.infoCode = tree.dictionary.encode(info);
+	  }
+	  
+	  @Override
+	  int infoCode() {
+		  return this.infoCode;
+	  }
+	  
+	  @Override
+	  void storeValue(String info) {
+		  this.infoCode = this.dictionary().encode(info);
+	  }
+	  
+	  @Override
+	  void copyValue(WAVLNode other) {
+		  this.infoCode = other.infoCode();
+	  }
+  }
  }
\ No newline at end of file